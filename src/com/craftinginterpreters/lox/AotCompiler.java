@@ -0,0 +1,561 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates a resolved program to the Java source of a class that runs it
+ * on the runtime in the aot package.
+ * Globals become static fields, a function's locals become Java locals and every
+ * function becomes an anonymous LoxFunction.Body. A local that some closure captures
+ * is kept in a Cell instead, which the closure shares with the declaring function.
+ * Whether a local is captured is only known once the functions after its declaration
+ * have been seen, so the program is translated twice and the first result is dropped.
+ */
+class AotCompiler implements Expr.Visitor<String>, Stmt.Visitor<Void> {
+    static final String PACKAGE = "com.craftinginterpreters.lox.aot";
+    static final String CLASS_NAME = "Script";
+
+    private static class Local {
+        final String name;
+        // Only the receiver and the superclass are final, and closures just read those.
+        final boolean isFinal;
+        boolean captured = false;
+
+        Local(String name, boolean isFinal) {
+            this.name = name;
+            this.isFinal = isFinal;
+        }
+    }
+
+    // A Java method, the program's run() or the call() of a function's body.
+    private static class Function {
+        final int id;
+        // Temporaries for the left operands of logical operators.
+        int temps = 0;
+
+        Function(int id) {
+            this.id = id;
+        }
+    }
+
+    // Mirrors the frame the Interpreter would run a Java method's code in, so that a
+    // variable's slot or upvalue from the Resolver lead to the same Local.
+    private static class Scope {
+        // The locals declared so far by slot. A slot is reused once the scope of its last local ends.
+        final Map<Integer, Local> slots = new HashMap<>();
+        // The function whose body the method runs, null for run().
+        final Stmt.Function declaration;
+
+        Scope(Stmt.Function declaration) {
+            this.declaration = declaration;
+        }
+    }
+
+    private final String sourceName;
+
+    // Declarations (Stmt.Var, Stmt.Function, Stmt.Class or a parameter's Token) to their
+    // locals. They carry over from the first translation to the second.
+    private final Map<Object, Local> locals = new IdentityHashMap<>();
+
+    private final Map<String, String> globals = new LinkedHashMap<>();
+    private final Map<Double, String> numbers = new LinkedHashMap<>();
+    private final List<Scope> scopes = new ArrayList<>();
+    private Function function;
+    private int nextId;
+
+    private StringBuilder out;
+    private int indent;
+
+    AotCompiler(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    String compile(List<Stmt> statements) {
+        translate(statements);
+        return translate(statements);
+    }
+
+    private String translate(List<Stmt> statements) {
+        globals.clear();
+        numbers.clear();
+        scopes.clear();
+        scopes.add(new Scope(null));
+        nextId = 0;
+        function = new Function(nextId++);
+
+        out = new StringBuilder();
+        indent = 2;
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        String body = out.toString();
+
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(PACKAGE).append(";\n\n");
+        source.append("// Compiled from ").append(sourceName).append(" by LoxAot.\n");
+        source.append("public final class ").append(CLASS_NAME).append(" implements Runnable {\n");
+        for (Map.Entry<String, String> global : globals.entrySet()) {
+            source.append("    private static final Global ").append(global.getValue())
+                    .append(" = LoxRuntime.global(\"").append(global.getKey()).append("\");\n");
+        }
+        for (Map.Entry<Double, String> number : numbers.entrySet()) {
+            source.append("    private static final Double ").append(number.getValue())
+                    .append(" = ").append(javaDouble(number.getKey())).append(";\n");
+        }
+        source.append("\n");
+        source.append("    public static void main(String[] args) {\n");
+        source.append("        LoxRuntime.start(new ").append(CLASS_NAME).append("());\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public void run() {\n");
+        source.append(temps(function, 2));
+        source.append(body);
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        line("{");
+        indent++;
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        indent--;
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        String superclass = "null";
+        if (stmt.superclass != null) {
+            superclass = "sup" + nextId++;
+            line("final LoxClass " + superclass + " = LoxRuntime.superclass("
+                    + compile(stmt.superclass) + ", " + stmt.superclass.name.line + ");");
+        }
+
+        // The class is declared before its methods, so they can refer to it.
+        Local local = null;
+        if (stmt.slot == -1) {
+            line(global(stmt.name) + ".define(null);");
+        } else {
+            local = declare(stmt, stmt.name, stmt.slot);
+            if (local.captured) line("final Cell " + local.name + " = new Cell(null);");
+        }
+
+        if (stmt.superclass != null) {
+            scopes.get(scopes.size() - 1).slots.put(stmt.superclassSlot, new Local(superclass, true));
+        }
+
+        List<String> methods = new ArrayList<>();
+        for (Stmt.Function method : stmt.methods) {
+            methods.add(function(method, true, method.name.lexeme.equals("init")));
+        }
+
+        String klass = "LoxRuntime.klass(" + javaString(stmt.name.lexeme) + ", " + superclass
+                + ", new LoxFunction[] {" + String.join(", ", methods) + "})";
+        if (local == null) {
+            line(global(stmt.name) + ".define(" + klass + ");");
+        } else if (local.captured) {
+            line(local.name + ".value = " + klass + ";");
+        } else {
+            line("Object " + local.name + " = " + klass + ";");
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        line("LoxRuntime.discard(" + compile(stmt.expression) + ");");
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.slot == -1) {
+            line(global(stmt.name) + ".define(" + function(stmt, false, false) + ");");
+            return null;
+        }
+
+        // Declared before the body is translated, so the function can call itself.
+        Local local = declare(stmt, stmt.name, stmt.slot);
+        if (local.captured) {
+            line("final Cell " + local.name + " = new Cell(null);");
+            line(local.name + ".value = " + function(stmt, false, false) + ";");
+        } else {
+            line("Object " + local.name + " = " + function(stmt, false, false) + ";");
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        line("if (LoxRuntime.isTruthy(" + compile(stmt.condition) + ")) {");
+        indent++;
+        compile(stmt.thenBranch);
+        indent--;
+        if (stmt.elseBranch != null) {
+            line("} else {");
+            indent++;
+            compile(stmt.elseBranch);
+            indent--;
+        }
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        line("LoxRuntime.print(" + compile(stmt.expression) + ");");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        String value = stmt.value == null ? "null" : compile(stmt.value);
+
+        // javac rejects statements after a plain return as unreachable, Lox doesn't.
+        line("if (true) return " + value + ";");
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        String value = stmt.initializer == null ? "null" : compile(stmt.initializer);
+
+        if (stmt.slot == -1) {
+            line(global(stmt.name) + ".define(" + value + ");");
+            return null;
+        }
+
+        Local local = declare(stmt, stmt.name, stmt.slot);
+        if (local.captured) {
+            line("final Cell " + local.name + " = new Cell(" + value + ");");
+        } else {
+            line("Object " + local.name + " = " + value + ";");
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        line("while (LoxRuntime.isTruthy(" + compile(stmt.condition) + ")) {");
+        indent++;
+        compile(stmt.body);
+        indent--;
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // The loop variable is scoped to the loop in Java too.
+        boolean hasScope = stmt.initializer instanceof Stmt.Var;
+        if (hasScope) {
+            line("{");
+            indent++;
+        }
+        if (stmt.initializer != null) compile(stmt.initializer);
+
+        // Not a constant true, after which javac would reject the code following the loop as unreachable.
+        String condition = stmt.condition != null ? compile(stmt.condition) : "Boolean.TRUE";
+        line("while (LoxRuntime.isTruthy(" + condition + ")) {");
+        indent++;
+        compile(stmt.body);
+        if (stmt.increment != null) line("LoxRuntime.discard(" + compile(stmt.increment) + ");");
+        indent--;
+        line("}");
+
+        if (hasScope) {
+            indent--;
+            line("}");
+        }
+        return null;
+    }
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+        String value = compile(expr.value);
+        if (expr.slot == -1 && expr.upvalue == -1) {
+            return global(expr.name) + ".set(" + value + ", " + expr.name.line + ")";
+        }
+
+        return "(" + variable(expr.slot, expr.upvalue) + " = " + value + ")";
+    }
+
+    @Override
+    public String visitBinaryExpr(Expr.Binary expr) {
+        String left = compile(expr.left);
+        String right = compile(expr.right);
+        int line = expr.operator.line;
+
+        switch (expr.operator.type) {
+            case MINUS: return "LoxRuntime.subtract(" + left + ", " + right + ", " + line + ")";
+            case SLASH: return "LoxRuntime.divide(" + left + ", " + right + ", " + line + ")";
+            case STAR: return "LoxRuntime.multiply(" + left + ", " + right + ", " + line + ")";
+            case PLUS: return "LoxRuntime.add(" + left + ", " + right + ", " + line + ")";
+            case GREATER: return "LoxRuntime.greater(" + left + ", " + right + ", " + line + ")";
+            case GREATER_EQUAL: return "LoxRuntime.greaterEqual(" + left + ", " + right + ", " + line + ")";
+            case LESS: return "LoxRuntime.less(" + left + ", " + right + ", " + line + ")";
+            case LESS_EQUAL: return "LoxRuntime.lessEqual(" + left + ", " + right + ", " + line + ")";
+            case BANG_EQUAL: return "LoxRuntime.notEqual(" + left + ", " + right + ")";
+            case EQUAL_EQUAL: return "LoxRuntime.equal(" + left + ", " + right + ")";
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        String callee = compile(expr.callee);
+
+        String arguments = "LoxRuntime.NO_ARGUMENTS";
+        if (!expr.arguments.isEmpty()) {
+            List<String> values = new ArrayList<>();
+            for (Expr argument : expr.arguments) {
+                values.add(compile(argument));
+            }
+            arguments = "new Object[] {" + String.join(", ", values) + "}";
+        }
+
+        return "LoxRuntime.call(" + callee + ", " + arguments + ", " + expr.paren.line + ")";
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+        return "LoxRuntime.get(" + compile(expr.object) + ", " + javaString(expr.name.lexeme) + ", " + expr.name.line + ")";
+    }
+
+    @Override
+    public String visitGroupingExpr(Expr.Grouping expr) {
+        return "(" + compile(expr.expression) + ")";
+    }
+
+    // The generated Java makes the call and leaves inlining it to the JVM.
+    @Override
+    public String visitInlineExpr(Expr.Inline expr) {
+        return compile(expr.call);
+    }
+
+    // The JVM hoists what doesn't change in the generated loop itself.
+    @Override
+    public String visitInvariantExpr(Expr.Invariant expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public String visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) return "null";
+        if (expr.value instanceof Boolean) return (boolean) expr.value ? "Boolean.TRUE" : "Boolean.FALSE";
+        if (expr.value instanceof String) return javaString((String) expr.value);
+
+        // A number is boxed once, in a constant, rather than every time it is evaluated.
+        Double value = (Double) expr.value;
+        String constant = numbers.get(value);
+        if (constant == null) {
+            constant = "K" + numbers.size();
+            numbers.put(value, constant);
+        }
+        return constant;
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+        String temp = "t" + function.temps++;
+        String left = compile(expr.left);
+        String right = compile(expr.right);
+
+        // The left operand is the result if it decides the outcome, so it is only evaluated once.
+        String test = "LoxRuntime.isTruthy(" + temp + " = " + left + ")";
+        if (expr.operator.type == TokenType.AND) test = "!" + test;
+        return "(" + test + " ? " + temp + " : " + right + ")";
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+        return "LoxRuntime.set(LoxRuntime.fieldTarget(" + compile(expr.object) + ", " + expr.name.line + "), "
+                + javaString(expr.name.lexeme) + ", " + compile(expr.value) + ")";
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        // "this" is always the first slot of the method's frame.
+        return "LoxRuntime.superMethod(" + variable(-1, expr.upvalue) + ", " + variable(0, expr.receiverUpvalue)
+                + ", " + javaString(expr.method.lexeme) + ", " + expr.method.line + ")";
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+        return variable(expr.slot, expr.upvalue);
+    }
+
+    @Override
+    public String visitUnaryExpr(Expr.Unary expr) {
+        String right = compile(expr.right);
+
+        switch (expr.operator.type) {
+            case MINUS: return "LoxRuntime.negate(" + right + ", " + expr.operator.line + ")";
+            case BANG: return "LoxRuntime.not(" + right + ")";
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+        if (expr.slot == -1 && expr.upvalue == -1) {
+            return global(expr.name) + ".get(" + expr.name.line + ")";
+        }
+
+        return variable(expr.slot, expr.upvalue);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private String compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    // Returns a new LoxFunction for the declaration, as a Java expression.
+    private String function(Stmt.Function declaration, boolean isMethod, boolean isInitializer) {
+        Function enclosing = function;
+        StringBuilder enclosingOut = out;
+        int enclosingIndent = indent;
+
+        function = new Function(nextId++);
+        out = new StringBuilder();
+        indent = enclosingIndent + 2;
+
+        String self = "s" + function.id;
+        String arguments = "a" + function.id;
+
+        Scope scope = new Scope(declaration);
+        scopes.add(scope);
+        int first = 0;
+        if (isMethod) {
+            scope.slots.put(0, new Local(self, true));
+            first = 1;
+        }
+
+        for (int i = 0; i < declaration.params.size(); i++) {
+            Token param = declaration.params.get(i);
+            Local local = declare(param, param, first + i);
+            String value = arguments + "[" + i + "]";
+            if (local.captured) {
+                line("final Cell " + local.name + " = new Cell(" + value + ");");
+            } else {
+                line("Object " + local.name + " = " + value + ";");
+            }
+        }
+
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        line("return null;");
+        scopes.remove(scopes.size() - 1);
+
+        String body = temps(function, indent) + out;
+        String margin = "    ".repeat(enclosingIndent + 1);
+        String result = "new LoxFunction(" + javaString(declaration.name.lexeme) + ", " + declaration.params.size()
+                + ", " + isInitializer + ", new LoxFunction.Body() {\n"
+                + margin + "@Override\n"
+                + margin + "public Object call(LoxInstance " + self + ", Object[] " + arguments + ") {\n"
+                + body
+                + margin + "}\n"
+                + "    ".repeat(enclosingIndent) + "})";
+
+        function = enclosing;
+        out = enclosingOut;
+        indent = enclosingIndent;
+        return result;
+    }
+
+    private Local declare(Object declaration, Token name, int slot) {
+        Local local = locals.get(declaration);
+        if (local == null) {
+            local = new Local("v_" + name.lexeme + "_" + locals.size(), false);
+            locals.put(declaration, local);
+        }
+
+        scopes.get(scopes.size() - 1).slots.put(slot, local);
+        return local;
+    }
+
+    // A local referred to through an upvalue, from a function other than its own, has to be in a Cell.
+    private String variable(int slot, int upvalue) {
+        Local local = upvalue == -1
+                ? scopes.get(scopes.size() - 1).slots.get(slot)
+                : captured(scopes.size() - 1, upvalue);
+        if (local.isFinal) return local.name;
+
+        if (upvalue != -1) local.captured = true;
+        return local.captured ? local.name + ".value" : local.name;
+    }
+
+    // The local that an upvalue of the function translated in scopes.get(index) refers to.
+    // A function is created in the Java method right outside its own.
+    private Local captured(int index, int upvalue) {
+        Capture capture = scopes.get(index).declaration.captures[upvalue];
+        if (capture.isLocal) return scopes.get(index - 1).slots.get(capture.index);
+        return captured(index - 1, capture.index);
+    }
+
+    private String global(Token name) {
+        return globals.computeIfAbsent(name.lexeme, lexeme -> "g_" + lexeme);
+    }
+
+    private String temps(Function function, int indent) {
+        if (function.temps == 0) return "";
+
+        List<String> temps = new ArrayList<>();
+        for (int i = 0; i < function.temps; i++) {
+            temps.add("t" + i + " = null");
+        }
+        return "    ".repeat(indent) + "Object " + String.join(", ", temps) + ";\n";
+    }
+
+    private void line(String text) {
+        out.append("    ".repeat(indent)).append(text).append("\n");
+    }
+
+    private static String javaString(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < ' ' || c > '~') {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append("\"").toString();
+    }
+
+    // Folding constants can make any double, not just the ones a literal can spell.
+    private static String javaDouble(double value) {
+        if (Double.isNaN(value)) return "Double.NaN";
+        if (Double.isInfinite(value)) return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        return Double.toString(value);
+    }
+}
@@ -91,6 +91,18 @@ public class AstPrinter implements Expr.Visitor<GraphizNode>, Stmt.Visitor<Graph
         return new GraphizNode(groupingUUID, sb.toString());
     }
 
+    // An inlined call is printed as the call it stands for.
+    @Override
+    public GraphizNode visitInlineExpr(Expr.Inline expr) {
+        return expr.call.accept(this);
+    }
+
+    // A hoisted expression is printed where it was.
+    @Override
+    public GraphizNode visitInvariantExpr(Expr.Invariant expr) {
+        return expr.expression.accept(this);
+    }
+
     @Override
     public GraphizNode visitLiteralExpr(Expr.Literal expr) {
         StringBuilder sb = new StringBuilder();
@@ -342,6 +354,55 @@ public class AstPrinter implements Expr.Visitor<GraphizNode>, Stmt.Visitor<Graph
         return new GraphizNode(expressionUUID, sb.toString());
     }
 
+    @Override
+    public GraphizNode visitForStmt(Stmt.For stmt) {
+        StringBuilder sb = new StringBuilder();
+        String forUUID = generateUUID();
+
+        sb.append(" [label=\"type=Stmt\nsubType=For\"];\n");
+
+        // All three clauses of a for loop are optional.
+        if (stmt.initializer != null) {
+            GraphizNode initializerNode = stmt.initializer.accept(this);
+            sb.append(initializerNode.getUuid())
+                    .append(initializerNode.getContent())
+                    .append(forUUID)
+                    .append(" -> ")
+                    .append(initializerNode.getUuid())
+                    .append(" [label=\"initializer\"];\n");
+        }
+
+        if (stmt.condition != null) {
+            GraphizNode conditionNode = stmt.condition.accept(this);
+            sb.append(conditionNode.getUuid())
+                    .append(conditionNode.getContent())
+                    .append(forUUID)
+                    .append(" -> ")
+                    .append(conditionNode.getUuid())
+                    .append(" [label=\"condition\"];\n");
+        }
+
+        if (stmt.increment != null) {
+            GraphizNode incrementNode = stmt.increment.accept(this);
+            sb.append(incrementNode.getUuid())
+                    .append(incrementNode.getContent())
+                    .append(forUUID)
+                    .append(" -> ")
+                    .append(incrementNode.getUuid())
+                    .append(" [label=\"increment\"];\n");
+        }
+
+        GraphizNode bodyNode = stmt.body.accept(this);
+        sb.append(bodyNode.getUuid())
+                .append(bodyNode.getContent())
+                .append(forUUID)
+                .append(" -> ")
+                .append(bodyNode.getUuid())
+                .append(" [label=\"body\"];\n");
+
+        return new GraphizNode(forUUID, sb.toString());
+    }
+
     @Override
     public GraphizNode visitFunctionStmt(Stmt.Function stmt) {
         StringBuilder sb = new StringBuilder();
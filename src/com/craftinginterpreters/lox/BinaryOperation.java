@@ -0,0 +1,139 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * How a binary expression is evaluated, stored in the node itself.
+ * A node starts out UNINITIALIZED. The first time it is evaluated it looks at its
+ * operator and at the operands it got, and replaces itself with the operation
+ * specialized for them, which only has to check that the operands are still of those
+ * types. Should they ever not be, the node falls back to GENERIC for good, which handles
+ * every combination of operands and reports the runtime errors.
+ * Subtraction, multiplication and division, like comparisons of an operand the
+ * Resolver knows is a number, never get here: the Interpreter evaluates them
+ * unboxed, see Interpreter.evaluateNumber().
+ */
+interface BinaryOperation {
+    Object execute(Expr.Binary expr, Object left, Object right);
+
+    BinaryOperation UNINITIALIZED = BinaryOperation::uninitialized;
+    BinaryOperation ADD_NUMBERS = BinaryOperation::addNumbers;
+    BinaryOperation CONCATENATE_STRINGS = BinaryOperation::concatenateStrings;
+    BinaryOperation GREATER_NUMBERS = BinaryOperation::greaterNumbers;
+    BinaryOperation GREATER_EQUAL_NUMBERS = BinaryOperation::greaterEqualNumbers;
+    BinaryOperation LESS_NUMBERS = BinaryOperation::lessNumbers;
+    BinaryOperation LESS_EQUAL_NUMBERS = BinaryOperation::lessEqualNumbers;
+
+    // Any two values can be compared for equality, so these never need to fall back.
+    BinaryOperation EQUAL = (expr, left, right) -> Interpreter.isEqual(left, right);
+    BinaryOperation NOT_EQUAL = (expr, left, right) -> !Interpreter.isEqual(left, right);
+
+    BinaryOperation GENERIC = BinaryOperation::generic;
+
+    private static Object uninitialized(Expr.Binary expr, Object left, Object right) {
+        expr.operation = specialize(expr.operator.type, left, right);
+        return expr.operation.execute(expr, left, right);
+    }
+
+    private static Object addNumbers(Expr.Binary expr, Object left, Object right) {
+        if (!Numbers.isNumber(left) || !Numbers.isNumber(right)) return fallBack(expr, left, right);
+        return Numbers.add(left, right);
+    }
+
+    private static Object concatenateStrings(Expr.Binary expr, Object left, Object right) {
+        if (!Rope.isString(left) || !Rope.isString(right)) return fallBack(expr, left, right);
+        return Rope.concatenate(left, right);
+    }
+
+    private static Object greaterNumbers(Expr.Binary expr, Object left, Object right) {
+        if (!Numbers.isNumber(left) || !Numbers.isNumber(right)) return fallBack(expr, left, right);
+        return Numbers.greater(left, right);
+    }
+
+    private static Object greaterEqualNumbers(Expr.Binary expr, Object left, Object right) {
+        if (!Numbers.isNumber(left) || !Numbers.isNumber(right)) return fallBack(expr, left, right);
+        return Numbers.greaterEqual(left, right);
+    }
+
+    private static Object lessNumbers(Expr.Binary expr, Object left, Object right) {
+        if (!Numbers.isNumber(left) || !Numbers.isNumber(right)) return fallBack(expr, left, right);
+        return Numbers.less(left, right);
+    }
+
+    private static Object lessEqualNumbers(Expr.Binary expr, Object left, Object right) {
+        if (!Numbers.isNumber(left) || !Numbers.isNumber(right)) return fallBack(expr, left, right);
+        return Numbers.lessEqual(left, right);
+    }
+
+    private static Object generic(Expr.Binary expr, Object left, Object right) {
+        switch (expr.operator.type) {
+            case PLUS:
+                if (Numbers.isNumber(left) && Numbers.isNumber(right)) {
+                    return Numbers.add(left, right);
+                }
+
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return Rope.concatenate(left, right);
+                }
+
+                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+            case GREATER:
+                checkNumberOperands(expr.operator, left, right);
+                return Numbers.greater(left, right);
+            case GREATER_EQUAL:
+                checkNumberOperands(expr.operator, left, right);
+                return Numbers.greaterEqual(left, right);
+            case LESS:
+                checkNumberOperands(expr.operator, left, right);
+                return Numbers.less(left, right);
+            case LESS_EQUAL:
+                checkNumberOperands(expr.operator, left, right);
+                return Numbers.lessEqual(left, right);
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(left, right);
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(left, right);
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    private static BinaryOperation specialize(TokenType operator, Object left, Object right) {
+        boolean numbers = Numbers.isNumber(left) && Numbers.isNumber(right);
+
+        switch (operator) {
+            case PLUS:
+                if (numbers) return ADD_NUMBERS;
+                if (Rope.isString(left) && Rope.isString(right)) return CONCATENATE_STRINGS;
+                break;
+            case GREATER:
+                if (numbers) return GREATER_NUMBERS;
+                break;
+            case GREATER_EQUAL:
+                if (numbers) return GREATER_EQUAL_NUMBERS;
+                break;
+            case LESS:
+                if (numbers) return LESS_NUMBERS;
+                break;
+            case LESS_EQUAL:
+                if (numbers) return LESS_EQUAL_NUMBERS;
+                break;
+            case EQUAL_EQUAL:
+                return EQUAL;
+            case BANG_EQUAL:
+                return NOT_EQUAL;
+        }
+
+        return GENERIC;
+    }
+
+    // The speculation failed, so stop speculating on this node.
+    private static Object fallBack(Expr.Binary expr, Object left, Object right) {
+        expr.operation = GENERIC;
+        return generic(expr, left, right);
+    }
+
+    static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (Numbers.isNumber(left) && Numbers.isNumber(right)) return;
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
@@ -0,0 +1,116 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calling a value, shared by the Interpreter and the ClosureCompiler, which only
+ * differ in how they evaluate the arguments of a call.
+ * Calls with up to three arguments to anything but a LoxFunction pass them as they
+ * are, without building a list. The arguments to a LoxFunction are evaluated straight
+ * into the slots of its new frame, and a tail call to one isn't made but left in the
+ * Interpreter's tailCallee, tailReceiver and tailFrame.
+ */
+final class Calls {
+    // How an engine evaluates the argument at the given index of a call's compiled or parsed arguments.
+    interface Arguments<A> {
+        Object evaluate(A arguments, int index, ValueStack stack);
+    }
+
+    private Calls() {}
+
+    static <A> Object call(Interpreter interpreter, Object callee, Arguments<A> evaluator, A arguments,
+                           int count, ValueStack stack, Token paren, boolean isTailCall) {
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            return callFunction(interpreter, function, function.receiver, evaluator, arguments, count, stack,
+                    paren, isTailCall);
+        }
+
+        switch (count) {
+            case 0:
+                return callable(callee, 0, paren).call0(interpreter);
+            case 1: {
+                Object a = evaluator.evaluate(arguments, 0, stack);
+                return callable(callee, 1, paren).call1(interpreter, a);
+            }
+            case 2: {
+                Object a = evaluator.evaluate(arguments, 0, stack);
+                Object b = evaluator.evaluate(arguments, 1, stack);
+                return callable(callee, 2, paren).call2(interpreter, a, b);
+            }
+            case 3: {
+                Object a = evaluator.evaluate(arguments, 0, stack);
+                Object b = evaluator.evaluate(arguments, 1, stack);
+                Object c = evaluator.evaluate(arguments, 2, stack);
+                return callable(callee, 3, paren).call3(interpreter, a, b, c);
+            }
+            default: {
+                List<Object> values = evaluateAll(evaluator, arguments, count, stack);
+                return callable(callee, count, paren).call(interpreter, values);
+            }
+        }
+    }
+
+    static <A> Object callFunction(Interpreter interpreter, LoxFunction function, LoxInstance receiver,
+                                   Arguments<A> evaluator, A arguments, int count, ValueStack stack,
+                                   Token paren, boolean isTailCall) {
+        if (count != function.arity()) {
+            // The arguments are still evaluated before the error is reported.
+            evaluateAll(evaluator, arguments, count, stack);
+            checkArity(function, count, paren);
+        }
+
+        int frame = function.newFrame(interpreter, receiver);
+        for (int i = 0; i < count; i++) {
+            function.setArgument(interpreter, frame, i, evaluator.evaluate(arguments, i, stack));
+        }
+
+        if (isTailCall) {
+            interpreter.tailCallee = function;
+            interpreter.tailReceiver = receiver;
+            interpreter.tailFrame = frame;
+            return null;
+        }
+
+        return function.invoke(interpreter, receiver, frame);
+    }
+
+    // Checks the callee once the arguments have been evaluated.
+    static LoxCallable callable(Object callee, int count, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable) callee;
+
+        /**
+         * We could push the arity checking into the concrete implementation
+         * of call(). But, since we’ll have multiple classes implementing
+         * LoxCallable, that would end up with redundant validation spread across
+         * a few classes. Hoisting it up here lets us do it in one place.
+         */
+        checkArity(function, count, paren);
+        return function;
+    }
+
+    static void checkArity(LoxCallable function, int count, Token paren) {
+        if (count != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguemnts but got " + count + ".");
+        }
+    }
+
+    // "this" is always the first slot of the method's frame.
+    static LoxInstance receiver(Expr.Super expr, ValueStack stack) {
+        if (expr.receiverUpvalue != -1) return (LoxInstance) stack.upvalues[expr.receiverUpvalue];
+        return (LoxInstance) stack.get(0);
+    }
+
+    private static <A> List<Object> evaluateAll(Arguments<A> evaluator, A arguments, int count, ValueStack stack) {
+        List<Object> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(evaluator.evaluate(arguments, i, stack));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+// A variable of an enclosing function that a function uses, found by the Resolver.
+// Creating the function copies the variable's slot into its upvalues: the value, or
+// the Cell of a variable that is assigned. The function then doesn't keep anything
+// of the frame it was declared in, which is reused as soon as that call returns.
+final class Capture {
+    // Whether the variable is a local of the frame the function is created in,
+    // rather than already an upvalue there.
+    final boolean isLocal;
+    // The variable's slot, or its index in the upvalues of the enclosing function.
+    final int index;
+
+    Capture(boolean isLocal, int index) {
+        this.isLocal = isLocal;
+        this.index = index;
+    }
+}
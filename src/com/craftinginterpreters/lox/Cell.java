@@ -0,0 +1,12 @@
+package com.craftinginterpreters.lox;
+
+// A local variable that a closure captures and that is assigned. The slot of the
+// variable and the upvalues of every closure capturing it hold on to the same cell,
+// so they see each other's assignments. See Resolver.
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,39 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A sequence of bytecode, like a Java ArrayList of bytes,
+// together with the constants it refers to.
+class Chunk {
+    byte[] code = new byte[8];
+    int count = 0;
+    // Each number in the array is the line number for the corresponding byte in the bytecode.
+    int[] lines = new int[8];
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+
+    void write(byte b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+
+        code[count] = b;
+        lines[count] = line;
+        count++;
+    }
+
+    // Identical constants share an index, so a name used all over a function only takes up one.
+    int addConstant(Object value) {
+        for (int i = 0; i < constantCount; i++) {
+            if (value.equals(constants[i])) return i;
+        }
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+}
@@ -0,0 +1,403 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JVM class-file writer for the code the JitCompiler generates.
+ * It writes version 49 class files, which the JVM verifies by type inference,
+ * so there are no stack map frames to compute. Each Code tracks the operand stack
+ * depth as instructions are added, to fill in max_stack.
+ */
+class ClassWriter {
+    private static final int VERSION = 49;
+
+    private static final int CONSTANT_Utf8 = 1;
+    private static final int CONSTANT_Class = 7;
+    private static final int CONSTANT_Fieldref = 9;
+    private static final int CONSTANT_Methodref = 10;
+    private static final int CONSTANT_InterfaceMethodref = 11;
+    private static final int CONSTANT_NameAndType = 12;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // Opcodes, named as in the JVM specification.
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int DUP_X1 = 0x5a;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int IFNULL = 0xc6;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    // Class names are internal names, e.g. "java/lang/Object".
+    ClassWriter(String name, String superName, String... interfaceNames) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    // A jump target. Jumps to it before it is placed are patched when it is.
+    static class Label {
+        private int position = -1;
+        private int stackDepth = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int stackDepth = 0;
+        private int maxStack = 0;
+        int maxLocals;
+
+        private Code(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        void op(int opcode, int stackEffect) {
+            bytes.write(opcode);
+            adjustStack(stackEffect);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                bytes.write(value);
+            } else {
+                op(SIPUSH, 1);
+                writeShort(value);
+            }
+        }
+
+        void load(int local) {
+            op(ALOAD, 1);
+            localIndex(local);
+        }
+
+        void store(int local) {
+            op(ASTORE, -1);
+            localIndex(local);
+        }
+
+        void getStatic(String owner, String name, String descriptor) {
+            op(GETSTATIC, 1);
+            writeShort(fieldRef(owner, name, descriptor));
+        }
+
+        void getField(String owner, String name, String descriptor) {
+            op(GETFIELD, 0);
+            writeShort(fieldRef(owner, name, descriptor));
+        }
+
+        void putField(String owner, String name, String descriptor) {
+            op(PUTFIELD, -2);
+            writeShort(fieldRef(owner, name, descriptor));
+        }
+
+        void invokeStatic(String owner, String name, String descriptor) {
+            op(INVOKESTATIC, stackEffect(descriptor, false));
+            writeShort(methodRef(CONSTANT_Methodref, owner, name, descriptor));
+        }
+
+        void invokeVirtual(String owner, String name, String descriptor) {
+            op(INVOKEVIRTUAL, stackEffect(descriptor, true));
+            writeShort(methodRef(CONSTANT_Methodref, owner, name, descriptor));
+        }
+
+        void invokeSpecial(String owner, String name, String descriptor) {
+            op(INVOKESPECIAL, stackEffect(descriptor, true));
+            writeShort(methodRef(CONSTANT_Methodref, owner, name, descriptor));
+        }
+
+        void invokeInterface(String owner, String name, String descriptor) {
+            op(INVOKEINTERFACE, stackEffect(descriptor, true));
+            writeShort(methodRef(CONSTANT_InterfaceMethodref, owner, name, descriptor));
+            bytes.write(argumentSlots(descriptor) + 1);
+            bytes.write(0);
+        }
+
+        void type(int opcode, String className) {
+            op(opcode, 0);
+            writeShort(classRef(className));
+        }
+
+        void jump(int opcode, Label label) {
+            op(opcode, opcode == GOTO ? 0 : -1);
+            if (label.stackDepth == -1) label.stackDepth = stackDepth;
+
+            int offset = bytes.size() - 1;
+            if (label.position != -1) {
+                writeShort(label.position - offset);
+            } else {
+                label.jumps.add(offset);
+                writeShort(0);
+            }
+        }
+
+        // The stack depth at a label is whatever it was at the jumps to it.
+        void mark(Label label) {
+            label.position = bytes.size();
+            if (label.stackDepth != -1) {
+                stackDepth = label.stackDepth;
+            } else {
+                label.stackDepth = stackDepth;
+            }
+            labels.add(label);
+        }
+
+        // After an unconditional jump or a return the stack depth is only known again at the next label.
+        void unreachable() {
+            stackDepth = 0;
+        }
+
+        private void adjustStack(int stackEffect) {
+            stackDepth += stackEffect;
+            if (stackDepth > maxStack) maxStack = stackDepth;
+        }
+
+        private void localIndex(int local) {
+            if (local > 0xff) throw new JitCompiler.Unsupported("too many locals");
+            bytes.write(local);
+            if (local >= maxLocals) maxLocals = local + 1;
+        }
+
+        private void writeShort(int value) {
+            bytes.write((value >> 8) & 0xff);
+            bytes.write(value & 0xff);
+        }
+
+        private byte[] toBytes() {
+            byte[] code = bytes.toByteArray();
+            if (code.length > Short.MAX_VALUE) throw new JitCompiler.Unsupported("method too large");
+
+            for (Label label : labels) {
+                for (int jump : label.jumps) {
+                    int offset = label.position - jump;
+                    code[jump + 1] = (byte) ((offset >> 8) & 0xff);
+                    code[jump + 2] = (byte) (offset & 0xff);
+                }
+            }
+
+            return code;
+        }
+    }
+
+    Code newCode(int parameterSlots) {
+        return new Code(parameterSlots);
+    }
+
+    void addField(int access, String name, String descriptor) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0); // Attributes.
+        } catch (IOException error) {
+            throw new AssertionError(error);
+        }
+
+        fields.add(buffer.toByteArray());
+    }
+
+    void addMethod(int access, String name, String descriptor, Code code) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            byte[] bytecode = code.toBytes();
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + bytecode.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0); // Exception table.
+            out.writeShort(0); // Attributes.
+        } catch (IOException error) {
+            throw new AssertionError(error);
+        }
+
+        methods.add(buffer.toByteArray());
+    }
+
+    byte[] toBytes() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int index : interfaces) {
+                out.writeShort(index);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); // Attributes.
+        } catch (IOException error) {
+            throw new AssertionError(error);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    private int utf8(String value) {
+        Integer index = entries.get("U" + value);
+        if (index != null) return index;
+
+        try {
+            poolOut.writeByte(CONSTANT_Utf8);
+            poolOut.writeUTF(value);
+        } catch (IOException error) {
+            throw new AssertionError(error);
+        }
+        return addEntry("U" + value);
+    }
+
+    private int classRef(String name) {
+        Integer index = entries.get("C" + name);
+        if (index != null) return index;
+
+        int nameIndex = utf8(name);
+        writeEntry(CONSTANT_Class, nameIndex);
+        return addEntry("C" + name);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + " " + descriptor;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        writeEntry(CONSTANT_NameAndType, nameIndex, descriptorIndex);
+        return addEntry(key);
+    }
+
+    private int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_Fieldref, owner, name, descriptor);
+    }
+
+    private int methodRef(int tag, String owner, String name, String descriptor) {
+        return memberRef(tag, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + " " + descriptor;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+
+        int classIndex = classRef(owner);
+        int nameAndTypeIndex = nameAndType(name, descriptor);
+        writeEntry(tag, classIndex, nameAndTypeIndex);
+        return addEntry(key);
+    }
+
+    private void writeEntry(int tag, int... indices) {
+        try {
+            poolOut.writeByte(tag);
+            for (int index : indices) {
+                poolOut.writeShort(index);
+            }
+        } catch (IOException error) {
+            throw new AssertionError(error);
+        }
+    }
+
+    private int addEntry(String key) {
+        entries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    // How many stack slots a call pushes minus how many it pops, the receiver included if it has one.
+    private static int stackEffect(String descriptor, boolean hasReceiver) {
+        char returnType = descriptor.charAt(descriptor.indexOf(')') + 1);
+        int returned = returnType == 'V' ? 0 : (returnType == 'J' || returnType == 'D') ? 2 : 1;
+        return returned - argumentSlots(descriptor) - (hasReceiver ? 1 : 0);
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'J' || c == 'D') {
+                slots += 2;
+                i++;
+            } else if (c == 'L') {
+                slots++;
+                i = descriptor.indexOf(';', i) + 1;
+            } else if (c == '[') {
+                while (descriptor.charAt(i) == '[') i++;
+                if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+                slots++;
+                i++;
+            } else {
+                slots++;
+                i++;
+            }
+        }
+
+        return slots;
+    }
+}
@@ -0,0 +1,685 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the resolved tree once into a tree of small closures and runs that instead
+ * of visiting the nodes, selected with --closures.
+ * Everything that can be decided by looking at a node is decided here, once: which
+ * operator it is, whether a variable is a global, a local or an upvalue and in which
+ * slot it lives, what a literal's value is. What is left for run time is just the work itself,
+ * with one virtual call per node and no accept()/visit double dispatch: the compiler
+ * visits each node once, the closures it returns never do.
+ * The closures share the Interpreter's globals and runtime classes, and they report
+ * how statements complete and leave returned values and tail calls in the Interpreter
+ * the same way its visit methods do, so LoxFunction.invoke() runs both alike.
+ */
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Evaluator>,
+        Stmt.Visitor<ClosureCompiler.Executor> {
+
+    // A compiled expression, evaluated with the frame of the function it appears in running.
+    interface Evaluator {
+        Object evaluate(ValueStack stack);
+    }
+
+    // A compiled statement, executed with the frame of the function it appears in running.
+    interface Executor {
+        Completion execute(ValueStack stack);
+    }
+
+    private static final Calls.Arguments<Evaluator[]> EVALUATE_ARGUMENT =
+            (arguments, index, stack) -> arguments[index].evaluate(stack);
+
+    private final Interpreter interpreter;
+
+    ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void interpret(List<Stmt> statements) {
+        Executor program = compileSequence(statements);
+        Interpreter.runWithDeepStack(() -> {
+            try {
+                program.execute(interpreter.stack);
+            } catch (RuntimeError error) {
+                // Frames reserved for calls whose arguments were still being evaluated are left behind.
+                interpreter.stack.pop(0);
+                Lox.runtimeError(error);
+            }
+        });
+    }
+
+    // Statements run one after the other in the same frame, as a function body does.
+    private Executor compileSequence(List<Stmt> statements) {
+        Executor[] executors = new Executor[statements.size()];
+        for (int i = 0; i < executors.length; i++) {
+            executors[i] = compile(statements.get(i));
+        }
+
+        if (executors.length == 1) return executors[0];
+
+        return stack -> {
+            for (Executor executor : executors) {
+                Completion completion = executor.execute(stack);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    private Executor compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    @Override
+    public Executor visitExpressionStmt(Stmt.Expression stmt) {
+        Evaluator expression = compile(stmt.expression);
+        return stack -> {
+            expression.evaluate(stack);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Executor visitPrintStmt(Stmt.Print stmt) {
+        Evaluator expression = compile(stmt.expression);
+        return stack -> {
+            System.out.println(Interpreter.stringify(expression.evaluate(stack)));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Executor visitVarStmt(Stmt.Var stmt) {
+        Evaluator initializer = stmt.initializer != null ? compile(stmt.initializer) : null;
+        int slot = stmt.slot;
+        String name = stmt.name.lexeme;
+
+        if (stmt.inCell) {
+            return stack -> {
+                Object value = initializer != null ? initializer.evaluate(stack) : null;
+                stack.set(slot, new Cell(value));
+                return Completion.NORMAL;
+            };
+        }
+
+        if (slot != -1) {
+            if (initializer == null) return stack -> {
+                stack.set(slot, null);
+                return Completion.NORMAL;
+            };
+
+            return stack -> {
+                stack.set(slot, initializer.evaluate(stack));
+                return Completion.NORMAL;
+            };
+        }
+
+        Environment globals = interpreter.globals;
+        return stack -> {
+            Object value = initializer != null ? initializer.evaluate(stack) : null;
+            globals.define(name, value);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Executor visitBlockStmt(Stmt.Block stmt) {
+        Executor body = compileSequence(stmt.statements);
+        int frameSize = stmt.frameSize;
+        if (frameSize == 0) return body;
+        return stack -> {
+            int caller = stack.enter(frameSize);
+            try {
+                return body.execute(stack);
+            } finally {
+                stack.leave(caller);
+            }
+        };
+    }
+
+    @Override
+    public Executor visitIfStmt(Stmt.If stmt) {
+        Evaluator condition = compile(stmt.condition);
+        Executor thenBranch = compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            return stack -> {
+                if (Interpreter.isTruthy(condition.evaluate(stack))) {
+                    return thenBranch.execute(stack);
+                }
+                return Completion.NORMAL;
+            };
+        }
+
+        Executor elseBranch = compile(stmt.elseBranch);
+        return stack -> {
+            if (Interpreter.isTruthy(condition.evaluate(stack))) {
+                return thenBranch.execute(stack);
+            }
+            return elseBranch.execute(stack);
+        };
+    }
+
+    @Override
+    public Executor visitWhileStmt(Stmt.While stmt) {
+        Evaluator condition = compile(stmt.condition);
+        Executor body = compile(stmt.body);
+        int[] invariants = stmt.invariants;
+        return stack -> {
+            stack.unset(invariants);
+            while (Interpreter.isTruthy(condition.evaluate(stack))) {
+                Completion completion = body.execute(stack);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Executor visitForStmt(Stmt.For stmt) {
+        Executor initializer = stmt.initializer != null ? compile(stmt.initializer) : null;
+        Evaluator condition = stmt.condition != null ? compile(stmt.condition) : null;
+        Evaluator increment = stmt.increment != null ? compile(stmt.increment) : null;
+        Executor body = compile(stmt.body);
+        int[] invariants = stmt.invariants;
+
+        Executor loop = stack -> {
+            if (initializer != null) initializer.execute(stack);
+
+            stack.unset(invariants);
+            while (condition == null || Interpreter.isTruthy(condition.evaluate(stack))) {
+                Completion completion = body.execute(stack);
+                if (completion != Completion.NORMAL) return completion;
+                if (increment != null) increment.evaluate(stack);
+            }
+            return Completion.NORMAL;
+        };
+
+        int frameSize = stmt.frameSize;
+        if (frameSize == 0) return loop;
+        return stack -> {
+            int caller = stack.enter(frameSize);
+            try {
+                return loop.execute(stack);
+            } finally {
+                stack.leave(caller);
+            }
+        };
+    }
+
+    // The body is compiled once here, not every time the declaration is executed.
+    @Override
+    public Executor visitFunctionStmt(Stmt.Function stmt) {
+        Executor body = compileSequence(stmt.body);
+
+        // A captured function is kept in a Cell, which the function itself may capture.
+        if (stmt.inCell) {
+            return stack -> {
+                Cell cell = new Cell(null);
+                stack.set(stmt.slot, cell);
+                cell.value = new LoxFunction(stmt, stack, false, false, body);
+                return Completion.NORMAL;
+            };
+        }
+
+        return stack -> {
+            interpreter.define(stmt.slot, stmt.name, new LoxFunction(stmt, stack, false, false, body));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public Executor visitClassStmt(Stmt.Class stmt) {
+        Evaluator superclassExpression = stmt.superclass != null ? compile(stmt.superclass) : null;
+
+        List<Executor> bodies = new ArrayList<>();
+        for (Stmt.Function method : stmt.methods) {
+            bodies.add(compileSequence(method.body));
+        }
+
+        return stack -> {
+            Object superclass = null;
+            if (superclassExpression != null) {
+                superclass = superclassExpression.evaluate(stack);
+                if (!(superclass instanceof LoxClass)) {
+                    throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+                }
+            }
+
+            // The methods capture the class's Cell before the class is put into it.
+            Cell cell = stmt.inCell ? new Cell(null) : null;
+            interpreter.define(stmt.slot, stmt.name, cell);
+
+            Map<String, LoxFunction> methods;
+            if (stmt.frameSize == 0) {
+                methods = methods(stmt, bodies, superclass, stack);
+            } else {
+                int caller = stack.enter(stmt.frameSize);
+                try {
+                    methods = methods(stmt, bodies, superclass, stack);
+                } finally {
+                    stack.leave(caller);
+                }
+            }
+
+            LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
+            if (cell != null) {
+                cell.value = klass;
+            } else {
+                interpreter.define(stmt.slot, stmt.name, klass);
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    // The methods of a subclass capture the superclass from the slot the Resolver gave "super".
+    private static Map<String, LoxFunction> methods(Stmt.Class stmt, List<Executor> bodies, Object superclass,
+                                                    ValueStack stack) {
+        if (superclass != null) stack.set(stmt.superclassSlot, superclass);
+
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (int i = 0; i < stmt.methods.size(); i++) {
+            Stmt.Function method = stmt.methods.get(i);
+            boolean isInitializer = method.name.lexeme.equals("init");
+            methods.put(method.name.lexeme, new LoxFunction(method, stack, true, isInitializer, bodies.get(i)));
+        }
+        return methods;
+    }
+
+    @Override
+    public Executor visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.isTailCall) {
+            Evaluator call = compileCall((Expr.Call) stmt.value, true);
+            return stack -> {
+                Object value = call.evaluate(stack);
+                if (interpreter.tailCallee != null) return Completion.TAIL_CALL;
+
+                interpreter.returnValue = value;
+                return Completion.RETURN;
+            };
+        }
+
+        if (stmt.value == null) {
+            return stack -> {
+                interpreter.returnValue = null;
+                return Completion.RETURN;
+            };
+        }
+
+        Evaluator value = compile(stmt.value);
+        return stack -> {
+            interpreter.returnValue = value.evaluate(stack);
+            return Completion.RETURN;
+        };
+    }
+
+    private Evaluator compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Evaluator visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Evaluator visitVariableExpr(Expr.Variable expr) {
+        return compileLoad(expr.name, expr.slot, expr.upvalue, expr.global, expr.inCell);
+    }
+
+    @Override
+    public Evaluator visitThisExpr(Expr.This expr) {
+        return compileLoad(expr.keyword, expr.slot, expr.upvalue, -1, false);
+    }
+
+    @Override
+    public Evaluator visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.runtimeValue;
+        return stack -> value;
+    }
+
+    private Evaluator compileLoad(Token name, int slot, int upvalue, int global, boolean inCell) {
+        if (upvalue != -1) {
+            if (inCell) return stack -> ((Cell) stack.upvalues[upvalue]).value;
+            return stack -> stack.upvalues[upvalue];
+        }
+        if (slot == -1) {
+            Environment globals = interpreter.globals;
+            return stack -> globals.get(global, name);
+        }
+        if (inCell) return stack -> ((Cell) stack.get(slot)).value;
+
+        return stack -> stack.get(slot);
+    }
+
+    @Override
+    public Evaluator visitAssignExpr(Expr.Assign expr) {
+        Evaluator value = compile(expr.value);
+        int slot = expr.slot;
+        int upvalue = expr.upvalue;
+
+        // A captured variable that is assigned is always in a Cell.
+        if (upvalue != -1) {
+            return stack -> {
+                Object result = value.evaluate(stack);
+                ((Cell) stack.upvalues[upvalue]).value = result;
+                return result;
+            };
+        }
+        if (slot == -1) {
+            Environment globals = interpreter.globals;
+            Token name = expr.name;
+            int global = expr.global;
+            return stack -> {
+                Object result = value.evaluate(stack);
+                globals.assign(global, name, result);
+                return result;
+            };
+        }
+        if (expr.inCell) {
+            return stack -> {
+                Object result = value.evaluate(stack);
+                ((Cell) stack.get(slot)).value = result;
+                return result;
+            };
+        }
+
+        return stack -> {
+            Object result = value.evaluate(stack);
+            stack.set(slot, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Evaluator visitBinaryExpr(Expr.Binary expr) {
+        Evaluator left = compile(expr.left);
+        Evaluator right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case PLUS:
+                return stack -> {
+                    Object a = left.evaluate(stack);
+                    Object b = right.evaluate(stack);
+                    if (Numbers.isNumber(a) && Numbers.isNumber(b)) return Numbers.add(a, b);
+                    if (Rope.isString(a) && Rope.isString(b)) return Rope.concatenate(a, b);
+
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+                };
+            case MINUS:
+                return stack -> {
+                    Object a = left.evaluate(stack);
+                    Object b = right.evaluate(stack);
+                    BinaryOperation.checkNumberOperands(operator, a, b);
+                    return Numbers.subtract(a, b);
+                };
+            case STAR:
+                return stack -> {
+                    Object a = left.evaluate(stack);
+                    Object b = right.evaluate(stack);
+                    BinaryOperation.checkNumberOperands(operator, a, b);
+                    return Numbers.multiply(a, b);
+                };
+            case SLASH:
+                return stack -> {
+                    Object a = left.evaluate(stack);
+                    Object b = right.evaluate(stack);
+                    BinaryOperation.checkNumberOperands(operator, a, b);
+                    return Numbers.divide(a, b);
+                };
+            case GREATER:
+                return stack -> {
+                    Object a = left.evaluate(stack);
+                    Object b = right.evaluate(stack);
+                    BinaryOperation.checkNumberOperands(operator, a, b);
+                    return Numbers.greater(a, b);
+                };
+            case GREATER_EQUAL:
+                return stack -> {
+                    Object a = left.evaluate(stack);
+                    Object b = right.evaluate(stack);
+                    BinaryOperation.checkNumberOperands(operator, a, b);
+                    return Numbers.greaterEqual(a, b);
+                };
+            case LESS:
+                return stack -> {
+                    Object a = left.evaluate(stack);
+                    Object b = right.evaluate(stack);
+                    BinaryOperation.checkNumberOperands(operator, a, b);
+                    return Numbers.less(a, b);
+                };
+            case LESS_EQUAL:
+                return stack -> {
+                    Object a = left.evaluate(stack);
+                    Object b = right.evaluate(stack);
+                    BinaryOperation.checkNumberOperands(operator, a, b);
+                    return Numbers.lessEqual(a, b);
+                };
+            case EQUAL_EQUAL:
+                return stack -> Interpreter.isEqual(left.evaluate(stack), right.evaluate(stack));
+            case BANG_EQUAL:
+                return stack -> !Interpreter.isEqual(left.evaluate(stack), right.evaluate(stack));
+        }
+
+        throw new AssertionError("Unknown binary operator " + operator.lexeme);
+    }
+
+    @Override
+    public Evaluator visitUnaryExpr(Expr.Unary expr) {
+        Evaluator right = compile(expr.right);
+        Token operator = expr.operator;
+
+        if (operator.type == TokenType.BANG) {
+            return stack -> !Interpreter.isTruthy(right.evaluate(stack));
+        }
+
+        return stack -> {
+            Object value = right.evaluate(stack);
+            if (!Numbers.isNumber(value)) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+            return Numbers.negate(value);
+        };
+    }
+
+    @Override
+    public Evaluator visitLogicalExpr(Expr.Logical expr) {
+        Evaluator left = compile(expr.left);
+        Evaluator right = compile(expr.right);
+
+        if (expr.operator.type == TokenType.OR) {
+            return stack -> {
+                Object value = left.evaluate(stack);
+                if (Interpreter.isTruthy(value)) return value;
+                return right.evaluate(stack);
+            };
+        }
+
+        return stack -> {
+            Object value = left.evaluate(stack);
+            if (!Interpreter.isTruthy(value)) return value;
+            return right.evaluate(stack);
+        };
+    }
+
+    @Override
+    public Evaluator visitCallExpr(Expr.Call expr) {
+        return compileCall(expr, false);
+    }
+
+    // A tail call to a LoxFunction isn't made but left in the Interpreter, as Interpreter.evaluateCall() does.
+    private Evaluator compileCall(Expr.Call expr, boolean isTailCall) {
+        Evaluator[] arguments = compileArguments(expr);
+        Token paren = expr.paren;
+
+        // Methods that are called right away aren't bound first, see Interpreter.invoke().
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            Evaluator object = compile(get.object);
+            return stack -> {
+                Object value = object.evaluate(stack);
+                if (!(value instanceof LoxInstance)) {
+                    throw new RuntimeError(get.name, "Only instances have properties.");
+                }
+
+                LoxInstance instance = (LoxInstance) value;
+                LoxFunction method = get.cache.getMethod(instance, get.name);
+
+                // A field holding a function shadows the method.
+                if (method == null) {
+                    Object callee = get.cache.get(instance, get.name);
+                    return call(callee, arguments, stack, paren, isTailCall);
+                }
+
+                return Calls.callFunction(interpreter, method, instance, EVALUATE_ARGUMENT, arguments,
+                        arguments.length, stack, paren, isTailCall);
+            };
+        }
+
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            Token name = superExpr.method;
+            return stack -> {
+                LoxClass superclass = (LoxClass) stack.upvalues[superExpr.upvalue];
+                LoxInstance object = Calls.receiver(superExpr, stack);
+
+                LoxFunction method = superclass.findMethod(name.lexeme);
+                if (method == null) {
+                    throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+                }
+
+                return Calls.callFunction(interpreter, method, object, EVALUATE_ARGUMENT, arguments,
+                        arguments.length, stack, paren, isTailCall);
+            };
+        }
+
+        // A LoxFunction is called straight from the closure, see Interpreter.evaluateCall().
+        Evaluator callee = compile(expr.callee);
+        return stack -> {
+            Object value = callee.evaluate(stack);
+            if (value instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction) value;
+                return Calls.callFunction(interpreter, function, function.receiver, EVALUATE_ARGUMENT, arguments,
+                        arguments.length, stack, paren, isTailCall);
+            }
+            return call(value, arguments, stack, paren, isTailCall);
+        };
+    }
+
+    // The body runs in a frame of the function's own while the global holds it, see Interpreter.visitInlineExpr().
+    @Override
+    public Evaluator visitInlineExpr(Expr.Inline expr) {
+        Evaluator callee = compile(expr.call.callee);
+        Evaluator[] arguments = compileArguments(expr.call);
+        Evaluator body = compile(expr.body);
+        Stmt.Function function = expr.function;
+        int frameSize = function.frameSize;
+        Token paren = expr.call.paren;
+
+        return stack -> {
+            Object value = callee.evaluate(stack);
+            if (!(value instanceof LoxFunction) || !((LoxFunction) value).isDeclaredBy(function)) {
+                return call(value, arguments, stack, paren, false);
+            }
+
+            int frame = stack.push(frameSize);
+            for (int i = 0; i < arguments.length; i++) {
+                Object argument = arguments[i].evaluate(stack);
+                stack.slots[frame + i] = argument;
+            }
+
+            int caller = stack.base;
+            stack.base = frame;
+            try {
+                return body.evaluate(stack);
+            } finally {
+                stack.pop(frame);
+                stack.base = caller;
+            }
+        };
+    }
+
+    // Evaluated the first time the loop gets to it, see Interpreter.visitInvariantExpr().
+    @Override
+    public Evaluator visitInvariantExpr(Expr.Invariant expr) {
+        Evaluator expression = compile(expr.expression);
+        int slot = expr.slot;
+        return stack -> {
+            Object value = stack.get(slot);
+            if (value != ValueStack.UNSET) return value;
+
+            value = expression.evaluate(stack);
+            stack.set(slot, value);
+            return value;
+        };
+    }
+
+    private Evaluator[] compileArguments(Expr.Call expr) {
+        Evaluator[] arguments = new Evaluator[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        return arguments;
+    }
+
+    // Calls are made as Calls.call() describes, with the compiled arguments.
+    private Object call(Object callee, Evaluator[] arguments, ValueStack stack, Token paren,
+                        boolean isTailCall) {
+        return Calls.call(interpreter, callee, EVALUATE_ARGUMENT, arguments, arguments.length, stack, paren,
+                isTailCall);
+    }
+
+    @Override
+    public Evaluator visitGetExpr(Expr.Get expr) {
+        Evaluator object = compile(expr.object);
+        Token name = expr.name;
+        InlineCache cache = expr.cache;
+        return stack -> {
+            Object value = object.evaluate(stack);
+            if (value instanceof LoxInstance) {
+                return ((LoxInstance) value).get(name, cache);
+            }
+
+            throw new RuntimeError(name, "Only instances have properties.");
+        };
+    }
+
+    @Override
+    public Evaluator visitSetExpr(Expr.Set expr) {
+        Evaluator object = compile(expr.object);
+        Evaluator value = compile(expr.value);
+        Token name = expr.name;
+        InlineCache cache = expr.cache;
+        return stack -> {
+            Object target = object.evaluate(stack);
+            if (!(target instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.evaluate(stack);
+            ((LoxInstance) target).set(name, result, cache);
+            return result;
+        };
+    }
+
+    @Override
+    public Evaluator visitSuperExpr(Expr.Super expr) {
+        Token name = expr.method;
+        return stack -> {
+            LoxClass superclass = (LoxClass) stack.upvalues[expr.upvalue];
+            LoxInstance object = Calls.receiver(expr, stack);
+
+            LoxFunction method = superclass.findMethod(name.lexeme);
+            if (method == null) {
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+            }
+
+            return method.bind(object);
+        };
+    }
+}
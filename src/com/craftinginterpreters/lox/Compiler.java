@@ -0,0 +1,703 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+/**
+ * Compiles the resolved syntax tree to bytecode for the VM.
+ * It emits the same code clox's single-pass compiler emits straight from the tokens:
+ * locals live in the stack slots of their function's call frame, locals captured by
+ * a closure are reached through upvalues and every other variable is a global.
+ * The Resolver has already reported every static error, so all that can still go
+ * wrong here is running out of two-byte operands.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final boolean DEBUG_PRINT_CODE = false;
+
+    // Locals, upvalues and constants are addressed by a two-byte operand.
+    private static final int UINT16_COUNT = 65536;
+
+    private enum FunctionType {
+        FUNCTION,
+        INITIALIZER,
+        METHOD,
+        SCRIPT
+    }
+
+    private static class Local {
+        final String name;
+        // The scope depth of the block that declared the local.
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        // The slot of the captured local if isLocal, otherwise the index of the enclosing function's upvalue.
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    // The state of the function being compiled. In clox this struct is the Compiler itself.
+    private static class FunctionCompiler {
+        final FunctionCompiler enclosing;
+        final ObjFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        // How many stack slots the code emitted so far leaves in use.
+        int stackDepth;
+
+        FunctionCompiler(FunctionCompiler enclosing, ObjFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // Slot zero holds the function being called, or the receiver in a method.
+            boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+            locals.add(new Local(isMethod ? "this" : "", 0));
+            stackDepth = 1;
+            function.maxStack = 1;
+        }
+    }
+
+    private static class ClassCompiler {
+        final ClassCompiler enclosing;
+        boolean hasSuperclass = false;
+
+        ClassCompiler(ClassCompiler enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private FunctionCompiler current = null;
+    private ClassCompiler currentClass = null;
+
+    // Instructions are attributed to the line of the token last visited.
+    private int line = 1;
+
+    // Returns the function for the top-level code. Check Lox.hadError before running it.
+    ObjFunction compile(List<Stmt> statements) {
+        current = new FunctionCompiler(null, new ObjFunction(null), FunctionType.SCRIPT);
+
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+
+        return endFunction();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        emitOp(OP_CLASS, makeConstant(stmt.name.lexeme), 1);
+        defineVariable(stmt.name.lexeme);
+
+        ClassCompiler classCompiler = new ClassCompiler(currentClass);
+        currentClass = classCompiler;
+
+        if (stmt.superclass != null) {
+            line = stmt.superclass.name.line;
+            getVariable(stmt.superclass.name.lexeme);
+
+            // The superclass stays on the stack as the local "super" that the methods capture.
+            beginScope();
+            addLocal("super");
+
+            getVariable(stmt.name.lexeme);
+            emitOp(OP_INHERIT, -1);
+            classCompiler.hasSuperclass = true;
+        }
+
+        // The class sits on the stack while its methods are added.
+        getVariable(stmt.name.lexeme);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = FunctionType.METHOD;
+            if (method.name.lexeme.equals("init")) {
+                type = FunctionType.INITIALIZER;
+            }
+
+            function(method, type);
+            emitOp(OP_METHOD, makeConstant(method.name.lexeme), -1);
+        }
+        emitOp(OP_POP, -1);
+
+        if (classCompiler.hasSuperclass) {
+            endScope();
+        }
+
+        currentClass = currentClass.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        // The expression sets the line, and popping its value can't fail.
+        compile(stmt.expression);
+        emitOp(OP_POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // The loop variable is a local on the stack, so the scope costs nothing at runtime.
+        beginScope();
+        if (stmt.initializer != null) compile(stmt.initializer);
+
+        int loopStart = current.function.chunk.count;
+        int exitJump = -1;
+        int depth = current.stackDepth;
+        if (stmt.condition != null) {
+            compile(stmt.condition);
+            depth = current.stackDepth;
+            exitJump = emitJump(OP_JUMP_IF_FALSE);
+            emitOp(OP_POP, -1);
+        }
+
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emitOp(OP_POP, -1);
+        }
+        emitLoop(loopStart);
+
+        // The condition is still on the stack when the jump lands here.
+        if (exitJump != -1) {
+            patchJump(exitJump);
+            current.stackDepth = depth;
+            emitOp(OP_POP, -1);
+        }
+
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+
+        // A local function is declared before its body is compiled, so it can call itself.
+        // Its closure ends up in the slot of that local.
+        if (current.scopeDepth > 0) {
+            addLocal(stmt.name.lexeme);
+            function(stmt, FunctionType.FUNCTION);
+        } else {
+            function(stmt, FunctionType.FUNCTION);
+            defineVariable(stmt.name.lexeme);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int depth = current.stackDepth;
+
+        int thenJump = emitJump(OP_JUMP_IF_FALSE);
+        emitOp(OP_POP, -1);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OP_JUMP);
+
+        // The condition is still on the stack when the jump lands here.
+        patchJump(thenJump);
+        current.stackDepth = depth;
+        emitOp(OP_POP, -1);
+
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        line = stmt.keyword.line;
+        compile(stmt.expression);
+        line = stmt.keyword.line;
+        emitOp(OP_PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emitOp(OP_RETURN, -1);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emitOp(OP_NIL, 1);
+        }
+
+        defineVariable(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        compile(stmt.condition);
+        int depth = current.stackDepth;
+
+        int exitJump = emitJump(OP_JUMP_IF_FALSE);
+        emitOp(OP_POP, -1);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        // The condition is still on the stack when the jump lands here.
+        patchJump(exitJump);
+        current.stackDepth = depth;
+        emitOp(OP_POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        setVariable(expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                emitOp(OP_EQUAL, -1);
+                emitOp(OP_NOT, 0);
+                break;
+            case EQUAL_EQUAL: emitOp(OP_EQUAL, -1); break;
+            case GREATER: emitOp(OP_GREATER, -1); break;
+            case GREATER_EQUAL: emitOp(OP_GREATER_EQUAL, -1); break;
+            case LESS: emitOp(OP_LESS, -1); break;
+            case LESS_EQUAL: emitOp(OP_LESS_EQUAL, -1); break;
+            case PLUS: emitOp(OP_ADD, -1); break;
+            case MINUS: emitOp(OP_SUBTRACT, -1); break;
+            case STAR: emitOp(OP_MULTIPLY, -1); break;
+            case SLASH: emitOp(OP_DIVIDE, -1); break;
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int argCount = expr.arguments.size();
+
+        // Calling a method right away doesn't need a bound method, see OP_INVOKE.
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            compile(get.object);
+            compileArguments(expr);
+
+            line = expr.paren.line;
+            emitOp(OP_INVOKE, makeConstant(get.name.lexeme), -argCount);
+            emitByte(argCount);
+            return null;
+        }
+
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            line = superExpr.keyword.line;
+            getVariable("this");
+            compileArguments(expr);
+            getVariable("super");
+
+            line = expr.paren.line;
+            emitOp(OP_SUPER_INVOKE, makeConstant(superExpr.method.lexeme), -argCount - 1);
+            emitByte(argCount);
+            return null;
+        }
+
+        compile(expr.callee);
+        compileArguments(expr);
+
+        line = expr.paren.line;
+        emitOp(OP_CALL, -argCount);
+        emitByte(argCount);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitOp(OP_GET_PROPERTY, makeConstant(expr.name.lexeme), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    // The VM makes the call, an inlined body would need the callee's frame.
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        compile(expr.call);
+        return null;
+    }
+
+    // The VM evaluates a hoisted expression where it is, on every iteration.
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        line = expr.line;
+        if (expr.value == null) {
+            emitOp(OP_NIL, 1);
+        } else if (expr.value.equals(true)) {
+            emitOp(OP_TRUE, 1);
+        } else if (expr.value.equals(false)) {
+            emitOp(OP_FALSE, 1);
+        } else {
+            emitOp(OP_CONSTANT, makeConstant(expr.value), 1);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        // The left operand is the result if it decides the outcome, otherwise it is popped.
+        if (expr.operator.type == TokenType.AND) {
+            int endJump = emitJump(OP_JUMP_IF_FALSE);
+            emitOp(OP_POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int elseJump = emitJump(OP_JUMP_IF_FALSE);
+            int endJump = emitJump(OP_JUMP);
+            patchJump(elseJump);
+            emitOp(OP_POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitOp(OP_SET_PROPERTY, makeConstant(expr.name.lexeme), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        getVariable("this");
+        getVariable("super");
+        emitOp(OP_GET_SUPER, makeConstant(expr.method.lexeme), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        getVariable("this");
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG: emitOp(OP_NOT, 0); break;
+            case MINUS: emitOp(OP_NEGATE, 0); break;
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        getVariable(expr.name.lexeme);
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compileArguments(Expr.Call expr) {
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+    }
+
+    // Compiles the function and leaves a closure for it on the stack.
+    private void function(Stmt.Function declaration, FunctionType type) {
+        FunctionCompiler compiler = new FunctionCompiler(current, new ObjFunction(declaration.name.lexeme), type);
+        current = compiler;
+
+        // The caller pushes the arguments right above the function, so they are the first locals.
+        beginScope();
+        for (Token param : declaration.params) {
+            current.function.arity++;
+            addLocal(param.lexeme);
+        }
+        current.stackDepth = current.locals.size();
+        current.function.maxStack = current.stackDepth;
+
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+
+        // There is no need to end the scope, returning discards the whole frame.
+        ObjFunction function = endFunction();
+
+        line = declaration.name.line;
+        emitOp(OP_CLOSURE, makeConstant(function), 1);
+        for (Upvalue upvalue : compiler.upvalues) {
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitShort(upvalue.index);
+        }
+    }
+
+    private ObjFunction endFunction() {
+        emitReturn();
+        ObjFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+
+        if (DEBUG_PRINT_CODE && !Lox.hadError) {
+            Debug.disassembleChunk(function.chunk, function.name != null ? function.name : "<script>");
+        }
+
+        current = current.enclosing;
+        return function;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        // A captured local has to move off the stack and into its upvalue first.
+        while (!current.locals.isEmpty()
+                && current.locals.get(current.locals.size() - 1).depth > current.scopeDepth) {
+            if (current.locals.get(current.locals.size() - 1).isCaptured) {
+                emitOp(OP_CLOSE_UPVALUE, -1);
+            } else {
+                emitOp(OP_POP, -1);
+            }
+            current.locals.remove(current.locals.size() - 1);
+        }
+    }
+
+    // The value for the variable is on top of the stack.
+    // A local simply keeps it there, the stack slot is where the local lives.
+    private void defineVariable(String name) {
+        if (current.scopeDepth > 0) {
+            addLocal(name);
+            return;
+        }
+
+        emitOp(OP_DEFINE_GLOBAL, makeConstant(name), -1);
+    }
+
+    private void addLocal(String name) {
+        if (current.locals.size() == UINT16_COUNT) {
+            Lox.error(line, "Too many local variables in function.");
+            return;
+        }
+
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private void getVariable(String name) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emitOp(OP_GET_LOCAL, arg, 1);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emitOp(OP_GET_UPVALUE, arg, 1);
+        } else {
+            emitOp(OP_GET_GLOBAL, makeConstant(name), 1);
+        }
+    }
+
+    private void setVariable(String name) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emitOp(OP_SET_LOCAL, arg, 0);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emitOp(OP_SET_UPVALUE, arg, 0);
+        } else {
+            emitOp(OP_SET_GLOBAL, makeConstant(name), 0);
+        }
+    }
+
+    private int resolveLocal(FunctionCompiler compiler, String name) {
+        for (int i = compiler.locals.size() - 1; i >= 0; i--) {
+            if (compiler.locals.get(i).name.equals(name)) return i;
+        }
+
+        return -1;
+    }
+
+    // Looks for a local in the enclosing functions and captures it in every function in between.
+    private int resolveUpvalue(FunctionCompiler compiler, String name) {
+        if (compiler.enclosing == null) return -1;
+
+        int local = resolveLocal(compiler.enclosing, name);
+        if (local != -1) {
+            compiler.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(compiler, local, true);
+        }
+
+        int upvalue = resolveUpvalue(compiler.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(compiler, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionCompiler compiler, int index, boolean isLocal) {
+        for (int i = 0; i < compiler.upvalues.size(); i++) {
+            Upvalue upvalue = compiler.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+
+        if (compiler.upvalues.size() == UINT16_COUNT) {
+            Lox.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+
+        compiler.upvalues.add(new Upvalue(index, isLocal));
+        return compiler.upvalues.size() - 1;
+    }
+
+    private int makeConstant(Object value) {
+        int constant = current.function.chunk.addConstant(value);
+        if (constant >= UINT16_COUNT) {
+            Lox.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+
+        return constant;
+    }
+
+    private void emitByte(int b) {
+        current.function.chunk.write((byte) b, line);
+    }
+
+    // stackEffect is how many values the instruction leaves on the stack minus how many it takes off.
+    private void emitOp(byte op, int stackEffect) {
+        emitByte(op);
+        current.stackDepth += stackEffect;
+        if (current.stackDepth > current.function.maxStack) {
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+
+    private void emitShort(int operand) {
+        emitByte((operand >> 8) & 0xff);
+        emitByte(operand & 0xff);
+    }
+
+    // Emits an instruction whose operand is a constant, local or upvalue index.
+    private void emitOp(byte op, int operand, int stackEffect) {
+        emitOp(op, stackEffect);
+        emitShort(operand);
+    }
+
+    private void emitReturn() {
+        // An initializer always returns the instance.
+        if (current.type == FunctionType.INITIALIZER) {
+            emitOp(OP_GET_LOCAL, 0, 1);
+        } else {
+            emitOp(OP_NIL, 1);
+        }
+
+        emitOp(OP_RETURN, -1);
+    }
+
+    // Returns the offset of the jump's operand, to patch once the target is known.
+    private int emitJump(byte instruction) {
+        emitOp(instruction, 0);
+        emitByte(0xff);
+        emitByte(0xff);
+        return current.function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        // -2 to adjust for the bytecode for the jump offset itself.
+        int jump = current.function.chunk.count - offset - 2;
+
+        if (jump > 0xffff) {
+            Lox.error(line, "Too much code to jump over.");
+        }
+
+        current.function.chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        current.function.chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitOp(OP_LOOP, 0);
+
+        // The + 2 is to take into account the size of the OP_LOOP instruction’s own operands which we also need to jump over.
+        int offset = current.function.chunk.count - loopStart + 2;
+        if (offset > 0xffff) Lox.error(line, "Loop body too large.");
+
+        emitByte((offset >> 8) & 0xff);
+        emitByte(offset & 0xff);
+    }
+}
@@ -0,0 +1,16 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * How the execution of a statement ended.
+ * A return statement doesn't throw to get back to the function call, it completes
+ * with RETURN and leaves its value in Interpreter.returnValue. Every statement that
+ * executes other statements stops as soon as one of them doesn't complete normally
+ * and passes it on, until it reaches LoxFunction.invoke().
+ * A return statement whose value is a call to another LoxFunction completes with
+ * TAIL_CALL instead and leaves that call for LoxFunction.invoke() to make.
+ */
+enum Completion {
+    NORMAL,
+    RETURN,
+    TAIL_CALL
+}
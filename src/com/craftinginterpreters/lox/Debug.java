@@ -0,0 +1,129 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+// Prints a chunk's bytecode in a human-readable form, one instruction per line.
+class Debug {
+    static void disassembleChunk(Chunk chunk, String name) {
+        System.out.println("== " + name + " ==");
+
+        for (int offset = 0; offset < chunk.count;) {
+            offset = disassembleInstruction(chunk, offset);
+        }
+    }
+
+    // Returns the offset of the next instruction.
+    static int disassembleInstruction(Chunk chunk, int offset) {
+        StringBuilder builder = new StringBuilder(String.format("%04d ", offset));
+        if (offset > 0 && chunk.lines[offset] == chunk.lines[offset - 1]) {
+            builder.append("   | ");
+        } else {
+            builder.append(String.format("%4d ", chunk.lines[offset]));
+        }
+        System.out.print(builder);
+
+        byte instruction = chunk.code[offset];
+        switch (instruction) {
+            case OP_CONSTANT: return constantInstruction("OP_CONSTANT", chunk, offset);
+            case OP_NIL: return simpleInstruction("OP_NIL", offset);
+            case OP_TRUE: return simpleInstruction("OP_TRUE", offset);
+            case OP_FALSE: return simpleInstruction("OP_FALSE", offset);
+            case OP_POP: return simpleInstruction("OP_POP", offset);
+            case OP_GET_LOCAL: return shortInstruction("OP_GET_LOCAL", chunk, offset);
+            case OP_SET_LOCAL: return shortInstruction("OP_SET_LOCAL", chunk, offset);
+            case OP_GET_GLOBAL: return constantInstruction("OP_GET_GLOBAL", chunk, offset);
+            case OP_DEFINE_GLOBAL: return constantInstruction("OP_DEFINE_GLOBAL", chunk, offset);
+            case OP_SET_GLOBAL: return constantInstruction("OP_SET_GLOBAL", chunk, offset);
+            case OP_GET_UPVALUE: return shortInstruction("OP_GET_UPVALUE", chunk, offset);
+            case OP_SET_UPVALUE: return shortInstruction("OP_SET_UPVALUE", chunk, offset);
+            case OP_GET_PROPERTY: return constantInstruction("OP_GET_PROPERTY", chunk, offset);
+            case OP_SET_PROPERTY: return constantInstruction("OP_SET_PROPERTY", chunk, offset);
+            case OP_GET_SUPER: return constantInstruction("OP_GET_SUPER", chunk, offset);
+            case OP_EQUAL: return simpleInstruction("OP_EQUAL", offset);
+            case OP_GREATER: return simpleInstruction("OP_GREATER", offset);
+            case OP_GREATER_EQUAL: return simpleInstruction("OP_GREATER_EQUAL", offset);
+            case OP_LESS: return simpleInstruction("OP_LESS", offset);
+            case OP_LESS_EQUAL: return simpleInstruction("OP_LESS_EQUAL", offset);
+            case OP_ADD: return simpleInstruction("OP_ADD", offset);
+            case OP_SUBTRACT: return simpleInstruction("OP_SUBTRACT", offset);
+            case OP_MULTIPLY: return simpleInstruction("OP_MULTIPLY", offset);
+            case OP_DIVIDE: return simpleInstruction("OP_DIVIDE", offset);
+            case OP_NOT: return simpleInstruction("OP_NOT", offset);
+            case OP_NEGATE: return simpleInstruction("OP_NEGATE", offset);
+            case OP_PRINT: return simpleInstruction("OP_PRINT", offset);
+            case OP_JUMP: return jumpInstruction("OP_JUMP", 1, chunk, offset);
+            case OP_JUMP_IF_FALSE: return jumpInstruction("OP_JUMP_IF_FALSE", 1, chunk, offset);
+            case OP_LOOP: return jumpInstruction("OP_LOOP", -1, chunk, offset);
+            case OP_CALL: return byteInstruction("OP_CALL", chunk, offset);
+            case OP_INVOKE: return invokeInstruction("OP_INVOKE", chunk, offset);
+            case OP_SUPER_INVOKE: return invokeInstruction("OP_SUPER_INVOKE", chunk, offset);
+            case OP_CLOSURE: {
+                offset++;
+                int constant = readShort(chunk, offset);
+                offset += 2;
+                ObjFunction function = (ObjFunction) chunk.constants[constant];
+                System.out.println(String.format("%-16s %4d %s", "OP_CLOSURE", constant, function));
+
+                for (int j = 0; j < function.upvalueCount; j++) {
+                    int isLocal = chunk.code[offset++];
+                    int index = readShort(chunk, offset);
+                    offset += 2;
+                    System.out.println(String.format("%04d      |                     %s %d",
+                            offset - 3, isLocal == 1 ? "local" : "upvalue", index));
+                }
+
+                return offset;
+            }
+            case OP_CLOSE_UPVALUE: return simpleInstruction("OP_CLOSE_UPVALUE", offset);
+            case OP_RETURN: return simpleInstruction("OP_RETURN", offset);
+            case OP_CLASS: return constantInstruction("OP_CLASS", chunk, offset);
+            case OP_INHERIT: return simpleInstruction("OP_INHERIT", offset);
+            case OP_METHOD: return constantInstruction("OP_METHOD", chunk, offset);
+            default:
+                System.out.println("Unknown opcode " + instruction);
+                return offset + 1;
+        }
+    }
+
+    private static int simpleInstruction(String name, int offset) {
+        System.out.println(name);
+        return offset + 1;
+    }
+
+    private static int byteInstruction(String name, Chunk chunk, int offset) {
+        int slot = chunk.code[offset + 1] & 0xff;
+        System.out.println(String.format("%-16s %4d", name, slot));
+        return offset + 2;
+    }
+
+    private static int shortInstruction(String name, Chunk chunk, int offset) {
+        int slot = readShort(chunk, offset + 1);
+        System.out.println(String.format("%-16s %4d", name, slot));
+        return offset + 3;
+    }
+
+    private static int jumpInstruction(String name, int sign, Chunk chunk, int offset) {
+        int jump = readShort(chunk, offset + 1);
+        System.out.println(String.format("%-16s %4d -> %d", name, offset, offset + 3 + sign * jump));
+        return offset + 3;
+    }
+
+    private static int constantInstruction(String name, Chunk chunk, int offset) {
+        int constant = readShort(chunk, offset + 1);
+        System.out.println(String.format("%-16s %4d '%s'", name, constant,
+                Interpreter.stringify(chunk.constants[constant])));
+        return offset + 3;
+    }
+
+    private static int invokeInstruction(String name, Chunk chunk, int offset) {
+        int constant = readShort(chunk, offset + 1);
+        int argCount = chunk.code[offset + 3] & 0xff;
+        System.out.println(String.format("%-16s (%d args) %4d '%s'", name, argCount, constant,
+                chunk.constants[constant]));
+        return offset + 4;
+    }
+
+    private static int readShort(Chunk chunk, int offset) {
+        return ((chunk.code[offset] & 0xff) << 8) | (chunk.code[offset + 1] & 0xff);
+    }
+}
@@ -1,59 +1,50 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+// The global variables. Locals are in the slots the Resolver gave them, on the ValueStack.
+// Globals are late bound, but the Resolver still gives each name a slot in this table
+// when it first resolves it, so that code reads and assigns a global without hashing
+// its name. The slot holds UNDEFINED until the global is defined.
 public class Environment {
-    final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-
-    public Environment() {
-        this.enclosing = null;
-    }
-
-    public Environment(Environment enclosing) {
-        this.enclosing = enclosing;
-    }
-
-    public void define(String name, Object value) {
-        values.put(name, value);
-    }
-
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
+    private static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private Object[] values = new Object[0];
+
+    // The slot of the global with this name, reserved the first time the name comes up.
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) return slot;
+
+        slot = slots.size();
+        slots.put(name, slot);
+        if (slot == values.length) {
+            int size = values.length;
+            values = Arrays.copyOf(values, Math.max(16, size * 2));
+            Arrays.fill(values, size, values.length, UNDEFINED);
         }
-
-        return environment;
+        return slot;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
-    }
-
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    // Defining a global runs once per declaration, so it can afford to look the name up.
+    public void define(String name, Object value) {
+        int slot = slot(name);
+        values[slot] = value;
     }
 
-    public Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if (enclosing != null) return enclosing.get(name);
+    Object get(int slot, Token name) {
+        Object value = values[slot];
+        if (value != UNDEFINED) return value;
 
         throw new RuntimeError(name, "Undefined varaible '" + name.lexeme + "'.");
     }
 
-    public void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+    void assign(int slot, Token name, Object value) {
+        if (values[slot] != UNDEFINED) {
+            values[slot] = value;
             return;
         }
 
@@ -10,6 +10,8 @@ abstract class Expr {
         R visitCallExpr(Call expr);
         R visitGetExpr(Get expr);
         R visitGroupingExpr(Grouping expr);
+        R visitInlineExpr(Inline expr);
+        R visitInvariantExpr(Invariant expr);
         R visitLiteralExpr(Literal expr);
         R visitLogicalExpr(Logical expr);
         R visitSetExpr(Set expr);
@@ -21,6 +23,10 @@ abstract class Expr {
     static class Assign extends Expr {
         final Token name;
         final Expr value;
+        int slot = -1;
+        int upvalue = -1;
+        int global = -1;
+        boolean inCell;
         Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
@@ -35,6 +41,9 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        BinaryOperation operation = BinaryOperation.UNINITIALIZED;
+        boolean isNumeric;
+        boolean isNumericComparison;
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -64,6 +73,7 @@ abstract class Expr {
     static class Get extends Expr {
         final Expr object;
         final Token name;
+        InlineCache cache = new InlineCache();
         Get(Expr object, Token name) {
             this.object = object;
             this.name = name;
@@ -85,8 +95,37 @@ abstract class Expr {
             return visitor.visitGroupingExpr(this);
         }
     }
+    static class Inline extends Expr {
+        final Expr.Call call;
+        final Stmt.Function function;
+        final Expr body;
+        Inline(Expr.Call call, Stmt.Function function, Expr body) {
+            this.call = call;
+            this.function = function;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitInlineExpr(this);
+        }
+    }
+    static class Invariant extends Expr {
+        final Expr expression;
+        int slot;
+        Invariant(Expr expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitInvariantExpr(this);
+        }
+    }
     static class Literal extends Expr {
         final Object value;
+        Object runtimeValue;
+        int line;
         Literal(Object value) {
             this.value = value;
         }
@@ -100,6 +139,7 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        LogicalOperation operation = LogicalOperation.UNINITIALIZED;
         Logical(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -115,6 +155,7 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        InlineCache cache = new InlineCache();
         Set(Expr object, Token name, Expr value) {
             this.object = object;
             this.name = name;
@@ -129,6 +170,8 @@ abstract class Expr {
     static class Super extends Expr {
         final Token keyword;
         final Token method;
+        int upvalue = -1;
+        int receiverUpvalue = -1;
         Super(Token keyword, Token method) {
             this.keyword = keyword;
             this.method = method;
@@ -141,6 +184,8 @@ abstract class Expr {
     }
     static class This extends Expr {
         final Token keyword;
+        int slot = -1;
+        int upvalue = -1;
         This(Token keyword) {
             this.keyword = keyword;
         }
@@ -153,6 +198,7 @@ abstract class Expr {
     static class Unary extends Expr {
         final Token operator;
         final Expr right;
+        boolean isNumeric;
         Unary(Token operator, Expr right) {
             this.operator = operator;
             this.right = right;
@@ -165,6 +211,10 @@ abstract class Expr {
     }
     static class Variable extends Expr {
         final Token name;
+        int slot = -1;
+        int upvalue = -1;
+        int global = -1;
+        boolean inCell;
         Variable(Token name) {
             this.name = name;
         }
@@ -0,0 +1,106 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A cache for the property lookups done by a single get or set expression in the source.
+ * Most sites only ever see instances of one shape, so the cache remembers where the
+ * property lives per receiver shape: the field slot, or the method found on the class.
+ * For a set that adds a field it remembers the shape transition instead.
+ * The cache is monomorphic after the first lookup, polymorphic while it has seen at
+ * most POLYMORPHIC_LIMIT shapes, and megamorphic after that, at which point it
+ * stops caching and always does the full lookup.
+ */
+class InlineCache {
+    private static final int POLYMORPHIC_LIMIT = 4;
+
+    private final Shape[] shapes = new Shape[POLYMORPHIC_LIMIT];
+    // The slot of the field in instances of that shape, or -1 if they don't have the field.
+    private final int[] slots = new int[POLYMORPHIC_LIMIT];
+    // When there is no such field, a get site remembers the method (null if there is none either)
+    // and a set site the shape the instance transitions to.
+    private final Object[] targets = new Object[POLYMORPHIC_LIMIT];
+    private int count = 0;
+    private boolean megamorphic = false;
+
+    // Shapes and classes never change after they are created,
+    // so an entry stays valid for as long as its shape lives.
+    Object get(LoxInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (slots[i] != -1) return instance.fields[slots[i]];
+                return instance.bind((LoxFunction) targets[i], name);
+            }
+        }
+
+        int slot = shape.slotOf(name.lexeme);
+        if (slot != -1) {
+            remember(shape, slot, null);
+            return instance.fields[slot];
+        }
+
+        LoxFunction method = shape.klass.findMethod(name.lexeme);
+        remember(shape, -1, method);
+        return instance.bind(method, name);
+    }
+
+    // Returns the method if the property is one, or null if it's a field or doesn't exist.
+    // Unlike get(), the method is not bound to the instance.
+    LoxFunction getMethod(LoxInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (slots[i] != -1) return null;
+                return (LoxFunction) targets[i];
+            }
+        }
+
+        int slot = shape.slotOf(name.lexeme);
+        if (slot != -1) {
+            remember(shape, slot, null);
+            return null;
+        }
+
+        LoxFunction method = shape.klass.findMethod(name.lexeme);
+        remember(shape, -1, method);
+        return method;
+    }
+
+    void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (slots[i] != -1) {
+                    instance.fields[slots[i]] = value;
+                } else {
+                    instance.addField((Shape) targets[i], value);
+                }
+                return;
+            }
+        }
+
+        int slot = shape.slotOf(name.lexeme);
+        if (slot != -1) {
+            remember(shape, slot, null);
+            instance.fields[slot] = value;
+            return;
+        }
+
+        Shape next = shape.withField(name.lexeme);
+        remember(shape, -1, next);
+        instance.addField(next, value);
+    }
+
+    private void remember(Shape shape, int slot, Object target) {
+        if (megamorphic) return;
+
+        if (count == POLYMORPHIC_LIMIT) {
+            megamorphic = true;
+            return;
+        }
+
+        shapes[count] = shape;
+        slots[count] = slot;
+        targets[count] = target;
+        count++;
+    }
+}
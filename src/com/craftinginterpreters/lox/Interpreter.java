@@ -2,17 +2,40 @@ package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
 
 // The purpose of the Interpreter is to take an AST as input
 // and calculate the result value
 public class Interpreter implements Expr.Visitor<Object>,
-                                    Stmt.Visitor<Void> {
+                                    Stmt.Visitor<Completion> {
+
+    // Stands in for the value of an operand that was evaluated as an unboxed number.
+    private static final Object UNBOXED = new Object();
+    // The stack size of the thread programs run on, see runWithDeepStack().
+    private static final long STACK_SIZE = 256L * 1024 * 1024;
 
     final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // The frames of the functions being run, and of the top-level statement declaring locals.
+    final ValueStack stack = new ValueStack();
+    private final Calls.Arguments<List<Expr>> argumentEvaluator =
+            (arguments, index, stack) -> evaluate(arguments.get(index));
+
+    // Whether the number evaluateNumber() last returned is a Long.
+    private boolean isLong;
+
+    // The value of the return statement that last completed with Completion.RETURN.
+    Object returnValue;
+
+    // The call made by the return statement that last completed with Completion.TAIL_CALL.
+    // It is left for LoxFunction.invoke() to make once the returning function's frame is gone.
+    LoxFunction tailCallee;
+    LoxInstance tailReceiver;
+    int tailFrame;
+
+    // Compiles hot functions to JVM code when tiered execution is on, null otherwise.
+    Jit jit = null;
+    // The function whose body is being tree-walked, null at the top level.
+    Stmt.Function executing = null;
 
     public Interpreter() {
         // TODO: move to separate class?
@@ -31,6 +54,11 @@ public class Interpreter implements Expr.Visitor<Object>,
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
 
@@ -42,96 +70,126 @@ public class Interpreter implements Expr.Visitor<Object>,
     }
 
     public void interpret(List<Stmt> statements) {
-        try {
-            for (Stmt statement : statements) {
-                execute(statement);
+        runWithDeepStack(() -> {
+            try {
+                for (Stmt statement : statements) {
+                    execute(statement);
+                }
+            } catch (RuntimeError error) {
+                // Frames reserved for calls whose arguments were still being evaluated are left behind.
+                stack.pop(0);
+                Lox.runtimeError(error);
+            }
+        });
+    }
+
+    /**
+     * Each Lox call is a few nested JVM calls, so a program runs on a thread of its own
+     * with a deep stack, as LoxRuntime.start() runs compiled ones, and deep recursion in
+     * Lox doesn't depend on the stack size of the thread that started it.
+     * Whatever the program throws is thrown again here.
+     */
+    static void runWithDeepStack(Runnable program) {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                program.run();
+            } catch (Throwable error) {
+                failure[0] = error;
             }
-        } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+        }, "lox", STACK_SIZE);
+
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
         }
+
+        if (failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+        if (failure[0] instanceof Error) throw (Error) failure[0];
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left / (double) right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                }
+        // Numbers computed along the way stay unboxed, only the result is boxed.
+        if (expr.isNumeric) return boxNumber(evaluateNumber(expr));
 
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
-                }
+        if (expr.isNumericComparison) return compareNumbers(expr);
 
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
-            case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
-            case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
-            case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
-            case BANG_EQUAL:
-                return !isEqual(left, right);
-            case EQUAL_EQUAL:
-                return isEqual(left, right);
-        }
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
 
-        // Unreachable.
-        return null;
+        // The node's operation specializes itself to the operand types it sees.
+        return expr.operation.execute(expr, left, right);
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        return evaluateCall(expr, false);
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    // A tail call to a LoxFunction isn't made but left in tailCallee, tailReceiver and tailFrame.
+    // Lox functions and methods are called straight from here rather than through call(), so a
+    // Lox call costs as few JVM frames as it can, see LoxFunction.invoke().
+    private Object evaluateCall(Expr.Call expr, boolean isTailCall) {
+        if (expr.callee instanceof Expr.Get) return invoke((Expr.Get) expr.callee, expr, isTailCall);
+        if (expr.callee instanceof Expr.Super) return invokeSuper((Expr.Super) expr.callee, expr, isTailCall);
+
+        Object callee = evaluate(expr.callee);
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            return Calls.callFunction(this, function, function.receiver, argumentEvaluator, expr.arguments,
+                    expr.arguments.size(), stack, expr.paren, isTailCall);
         }
+        return call(callee, expr, isTailCall);
+    }
 
-        if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+    /**
+     * A method that is called right away, as in object.method(arguments), is run with
+     * the instance as its receiver. Binding it first would allocate a bound method
+     * that is thrown away as soon as the call returns.
+     */
+    private Object invoke(Expr.Get get, Expr.Call expr, boolean isTailCall) {
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(get.name, "Only instances have properties.");
         }
 
-        LoxCallable function = (LoxCallable) callee;
+        LoxInstance instance = (LoxInstance) object;
+        LoxFunction method = get.cache.getMethod(instance, get.name);
 
-        /**
-         * We could push the arity checking into the concrete implementation
-         * of call(). But, since we’ll have multiple classes implementing
-         * LoxCallable, that would end up with redundant validation spread across
-         * a few classes. Hoisting it up into the visit method lets us do it
-         * in one place.
-         */
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguemnts but got " + arguments.size() + ".");
+        // A field holding a function shadows the method.
+        if (method == null) return call(get.cache.get(instance, get.name), expr, isTailCall);
+
+        return Calls.callFunction(this, method, instance, argumentEvaluator, expr.arguments,
+                expr.arguments.size(), stack, expr.paren, isTailCall);
+    }
+
+    private Object invokeSuper(Expr.Super superExpr, Expr.Call expr, boolean isTailCall) {
+        LoxClass superclass = (LoxClass) stack.upvalues[superExpr.upvalue];
+        LoxInstance object = Calls.receiver(superExpr, stack);
+
+        LoxFunction method = superclass.findMethod(superExpr.method.lexeme);
+        if (method == null) {
+            throw new RuntimeError(superExpr.method, "Undefined property '" + superExpr.method.lexeme + "'.");
         }
 
-        return function.call(this, arguments);
+        return Calls.callFunction(this, method, object, argumentEvaluator, expr.arguments,
+                expr.arguments.size(), stack, expr.paren, isTailCall);
+    }
+
+    // Calls are made as Calls.call() describes, with the arguments evaluated by visiting them.
+    private Object call(Object callee, Expr.Call expr, boolean isTailCall) {
+        return Calls.call(this, callee, argumentEvaluator, expr.arguments, expr.arguments.size(), stack,
+                expr.paren, isTailCall);
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return ((LoxInstance) object).get(expr.name, expr.cache);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -142,20 +200,57 @@ public class Interpreter implements Expr.Visitor<Object>,
         return evaluate(expr.expression);
     }
 
+    /**
+     * The body of an inlined function is evaluated in a frame of the function's own,
+     * where the slots the Resolver gave its parameters are, but without the rest of
+     * a call: no Completion, return value or switch of upvalues, which it doesn't use.
+     * If the global has been given another value since, the call is made as written.
+     */
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr) {
+        Object callee = evaluate(expr.call.callee);
+        if (!(callee instanceof LoxFunction) || !((LoxFunction) callee).isDeclaredBy(expr.function)) {
+            return call(callee, expr.call, false);
+        }
+
+        List<Expr> arguments = expr.call.arguments;
+        int frame = stack.push(expr.function.frameSize);
+        for (int i = 0; i < arguments.size(); i++) {
+            Object value = evaluate(arguments.get(i));
+            stack.slots[frame + i] = value;
+        }
+
+        int caller = stack.base;
+        stack.base = frame;
+        try {
+            return evaluate(expr.body);
+        } finally {
+            stack.pop(frame);
+            stack.base = caller;
+        }
+    }
+
+    // Evaluated the first time the loop gets to it, where the expression would have been.
+    @Override
+    public Object visitInvariantExpr(Expr.Invariant expr) {
+        Object value = stack.get(expr.slot);
+        if (value != ValueStack.UNSET) return value;
+
+        value = evaluate(expr.expression);
+        stack.set(expr.slot, value);
+        return value;
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
-        return expr.value;
+        // Integral numbers are Longs at run time, see Numbers.
+        return expr.runtimeValue;
     }
 
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
-
-        if (expr.operator.type == TokenType.OR) {
-            if (isTruthy(left)) return left;
-        } else {
-            if (!isTruthy(left)) return left;
-        }
+        if (expr.operation.decides(expr, left)) return left;
 
         return evaluate(expr.right);
     }
@@ -169,16 +264,14 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance) object).set(expr.name, value);
+        ((LoxInstance) object).set(expr.name, value, expr.cache);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+        LoxClass superclass = (LoxClass) stack.upvalues[expr.upvalue];
+        LoxInstance object = Calls.receiver(expr, stack);
 
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
 
@@ -191,79 +284,87 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.slot, expr.upvalue, -1, false);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double) right;
-            case BANG:
-                return !isTruthy(right);
-        }
+        if (expr.isNumeric) return boxNumber(evaluateNumber(expr));
 
-        // Unreachable.
-        return null;
+        // Anything else is a "!", which any value has an answer to.
+        return !isTruthy(evaluate(expr.right));
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.slot, expr.upvalue, expr.global, expr.inCell);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int slot, int upvalue, int global, boolean inCell) {
+        Object value;
+        if (upvalue != -1) {
+            value = stack.upvalues[upvalue];
+        } else if (slot != -1) {
+            value = stack.get(slot);
         } else {
-            return globals.get(name);
+            return globals.get(global, name);
         }
+
+        return inCell ? ((Cell) value).value : value;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.upvalue != -1) {
+            // A captured variable that is assigned is always in a Cell.
+            ((Cell) stack.upvalues[expr.upvalue]).value = value;
+        } else if (expr.slot == -1) {
+            globals.assign(expr.global, expr.name, value);
+        } else if (expr.inCell) {
+            ((Cell) stack.get(expr.slot)).value = value;
         } else {
-            globals.assign(expr.name, value);
+            stack.set(expr.slot, value);
         }
 
         return value;
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
-    }
-
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(operator, "Operands must be numbers.");
-    }
-
     // Lox follows Ruby’s simple rule: false and nil are falsey, and everything else is truthy.
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private boolean isEqual(Object left, Object right) {
+    static boolean isEqual(Object left, Object right) {
         if (left == null && right == null) return true;
         if (left == null ) return false;
+
+        // A Long is equal to the Double with the same value.
+        if (left instanceof Long || right instanceof Long) {
+            return Numbers.isNumber(left) && Numbers.isNumber(right) && Numbers.equal(left, right);
+        }
+
+        // A Rope is equal to the String with the same characters.
+        if (left instanceof Rope || right instanceof Rope) {
+            return Rope.isString(left) && Rope.isString(right) && Rope.equal((CharSequence) left, (CharSequence) right);
+        }
+
         return left.equals(right);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
+        // Doubles from 10^7 on print in scientific notation, so only smaller integers print as they are.
+        if (object instanceof Long) {
+            long value = (long) object;
+            if (value > -10_000_000 && value < 10_000_000) return Long.toString(value);
+            object = (double) value;
+        }
+
         if (object instanceof Double) {
             String text = object.toString();
             if (text.endsWith(".0")) {
@@ -279,71 +380,254 @@ public class Interpreter implements Expr.Visitor<Object>,
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    /**
+     * Evaluates an expression the Resolver found to be numeric without boxing its value,
+     * or the values of those of its operands that are numeric themselves.
+     * Other operands are evaluated as usual, and as with boxed arithmetic their types
+     * are only checked once both operands have been evaluated.
+     * Numbers stay in long arithmetic the way Numbers keeps them: while every number is a
+     * Long and each result is exact. isLong says whether the value returned is one, which
+     * a double holds exactly.
+     */
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).runtimeValue;
+            isLong = value instanceof Long;
+            return Numbers.toDouble(value);
+        }
+        if (expr instanceof Expr.Grouping) return evaluateNumber(((Expr.Grouping) expr).expression);
+
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            double right;
+            if (Resolver.isNumeric(unary.right)) {
+                right = evaluateNumber(unary.right);
+            } else {
+                Object value = evaluate(unary.right);
+                if (!Numbers.isNumber(value)) {
+                    throw new RuntimeError(unary.operator, "Operand must be a number.");
+                }
+                isLong = value instanceof Long;
+                right = Numbers.toDouble(value);
+            }
+
+            if (isLong) {
+                long result = Numbers.negateExact((long) right);
+                if (result != Numbers.NOT_EXACT) return result;
+                isLong = false;
+            }
+            return -right;
+        }
+
+        Expr.Binary binary = (Expr.Binary) expr;
+        double left = 0;
+        double right = 0;
+        boolean leftIsLong = false;
+        boolean rightIsLong = false;
+        Object leftValue = UNBOXED;
+        Object rightValue = UNBOXED;
+
+        if (Resolver.isNumeric(binary.left)) {
+            left = evaluateNumber(binary.left);
+            leftIsLong = isLong;
+        } else {
+            leftValue = evaluate(binary.left);
+        }
+        if (Resolver.isNumeric(binary.right)) {
+            right = evaluateNumber(binary.right);
+            rightIsLong = isLong;
+        } else {
+            rightValue = evaluate(binary.right);
+        }
+
+        if (leftValue != UNBOXED) {
+            left = numberOperand(leftValue, binary.operator);
+            leftIsLong = leftValue instanceof Long;
+        }
+        if (rightValue != UNBOXED) {
+            right = numberOperand(rightValue, binary.operator);
+            rightIsLong = rightValue instanceof Long;
+        }
+
+        if (leftIsLong && rightIsLong) {
+            long result = Numbers.NOT_EXACT;
+            switch (binary.operator.type) {
+                case PLUS:
+                    result = Numbers.addExact((long) left, (long) right);
+                    break;
+                case MINUS:
+                    result = Numbers.subtractExact((long) left, (long) right);
+                    break;
+                case STAR:
+                    result = Numbers.multiplyExact((long) left, (long) right);
+                    break;
+                case SLASH:
+                    result = Numbers.divideExact((long) left, (long) right);
+                    break;
+            }
+
+            isLong = result != Numbers.NOT_EXACT;
+            if (isLong) return result;
+        }
+
+        isLong = false;
+        switch (binary.operator.type) {
+            case PLUS:
+                return left + right;
+            case MINUS:
+                return left - right;
+            case STAR:
+                return left * right;
+            case SLASH:
+                return left / right;
+        }
+
+        // Unreachable.
+        return 0;
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    // The Long or Double that evaluateNumber() computed.
+    private Object boxNumber(double value) {
+        if (isLong) return (long) value;
+        return value;
     }
 
-    protected void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
-        try {
-            this.environment = environment;
+    // A comparison with at least one numeric operand, which is evaluated without boxing it.
+    private Object compareNumbers(Expr.Binary expr) {
+        double left = 0;
+        double right = 0;
+        Object leftValue = UNBOXED;
+        Object rightValue = UNBOXED;
 
-            for (Stmt statement : statements) {
-                execute(statement);
-            }
-        } finally {
-            this.environment = previous;
+        if (Resolver.isNumeric(expr.left)) left = evaluateNumber(expr.left);
+        else leftValue = evaluate(expr.left);
+        if (Resolver.isNumeric(expr.right)) right = evaluateNumber(expr.right);
+        else rightValue = evaluate(expr.right);
+
+        if (leftValue != UNBOXED) left = numberOperand(leftValue, expr.operator);
+        if (rightValue != UNBOXED) right = numberOperand(rightValue, expr.operator);
+
+        switch (expr.operator.type) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            case LESS_EQUAL:
+                return left <= right;
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    private static double numberOperand(Object value, Token operator) {
+        if (Numbers.isNumber(value)) return Numbers.toDouble(value);
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // Locals live in the slot the Resolver gave them, globals are bound by name.
+    void define(int slot, Token name, Object value) {
+        if (slot != -1) {
+            stack.set(slot, value);
+        } else {
+            globals.define(name.lexeme, value);
         }
     }
 
+    protected Completion executeBlock(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            Completion completion = execute(statement);
+            if (completion != Completion.NORMAL) return completion;
+        }
+
+        return Completion.NORMAL;
+    }
+
     /*
      * Unlike expressions, statements produce no values,
-     * so the return type of the visit methods is Void, not Object.
+     * so the visit methods only report how the statement completed.
      */
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.slot, stmt.name, stmt.inCell ? new Cell(value) : value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        stack.unset(stmt.invariants);
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) return completion;
+            if (jit != null && executing != null) jit.backEdge(executing);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment((environment)));
-        return null;
+    public Completion visitForStmt(Stmt.For stmt) {
+        if (stmt.frameSize == 0) return loop(stmt);
+
+        int caller = stack.enter(stmt.frameSize);
+        try {
+            return loop(stmt);
+        } finally {
+            stack.leave(caller);
+        }
+    }
+
+    private Completion loop(Stmt.For stmt) {
+        if (stmt.initializer != null) execute(stmt.initializer);
+
+        stack.unset(stmt.invariants);
+        while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) return completion;
+            if (stmt.increment != null) evaluate(stmt.increment);
+            if (jit != null && executing != null) jit.backEdge(executing);
+        }
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        // Only a block at the top level of the script that declares locals has a frame of its own.
+        if (stmt.frameSize == 0) return executeBlock(stmt.statements);
+
+        int caller = stack.enter(stmt.frameSize);
+        try {
+            return executeBlock(stmt.statements);
+        } finally {
+            stack.leave(caller);
+        }
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -352,51 +636,83 @@ public class Interpreter implements Expr.Visitor<Object>,
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        // The methods capture the class's Cell before the class is put into it.
+        Cell cell = stmt.inCell ? new Cell(null) : null;
+        define(stmt.slot, stmt.name, cell);
 
-        if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
-        }
-
-        Map<String, LoxFunction> methods = new HashMap<>();
-        for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+        Map<String, LoxFunction> methods;
+        if (stmt.frameSize == 0) {
+            methods = methods(stmt, superclass);
+        } else {
+            int caller = stack.enter(stmt.frameSize);
+            try {
+                methods = methods(stmt, superclass);
+            } finally {
+                stack.leave(caller);
+            }
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
 
-        if (superclass != null) {
-            environment = environment.enclosing;
+        if (cell != null) {
+            cell.value = klass;
+        } else {
+            define(stmt.slot, stmt.name, klass);
         }
+        return Completion.NORMAL;
+    }
 
-        environment.assign(stmt.name, klass);
-        return null;
+    // The methods capture the superclass from the slot the Resolver gave "super".
+    private Map<String, LoxFunction> methods(Stmt.Class stmt, Object superclass) {
+        if (superclass != null) stack.set(stmt.superclassSlot, superclass);
+
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (Stmt.Function method : stmt.methods) {
+            LoxFunction function = new LoxFunction(method, stack, true, method.name.lexeme.equals("init"));
+            methods.put(method.name.lexeme, function);
+        }
+        return methods;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        // A captured function is kept in a Cell, which the function itself may capture.
+        if (stmt.inCell) {
+            Cell cell = new Cell(null);
+            define(stmt.slot, stmt.name, cell);
+            cell.value = new LoxFunction(stmt, stack, false, false);
+            return Completion.NORMAL;
+        }
+
+        LoxFunction function = new LoxFunction(stmt, stack, false, false);
+        define(stmt.slot, stmt.name, function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.isTailCall) {
+            Object value = evaluateCall((Expr.Call) stmt.value, true);
+            if (tailCallee != null) return Completion.TAIL_CALL;
+
+            returnValue = value;
+            return Completion.RETURN;
+        }
+
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 }
@@ -0,0 +1,34 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Decides when a function is compiled to JVM bytecode.
+ * Every function starts out tree-walked. Its hotness counts its calls and the loop
+ * iterations run in its body, and once that reaches THRESHOLD the JitCompiler
+ * compiles it. Compiling only the hot functions keeps startup as cheap as plain
+ * tree-walking.
+ */
+class Jit {
+    static final int THRESHOLD = 1000;
+
+    // The hotness of a function the JitCompiler can't handle. It stays that way, as it is
+    // neither counted nor tried again.
+    private static final int REJECTED = Integer.MIN_VALUE;
+
+    // Returns the compiled code for the function, or null while it should still be tree-walked.
+    JitCode codeFor(Stmt.Function declaration, boolean isMethod) {
+        if (declaration.compiled != null) return declaration.compiled;
+        if (declaration.hotness == REJECTED || ++declaration.hotness < THRESHOLD) return null;
+
+        try {
+            declaration.compiled = JitCompiler.compile(declaration, isMethod);
+        } catch (JitCompiler.Unsupported unsupported) {
+            declaration.hotness = REJECTED;
+        }
+
+        return declaration.compiled;
+    }
+
+    void backEdge(Stmt.Function declaration) {
+        if (declaration.hotness != REJECTED) declaration.hotness++;
+    }
+}
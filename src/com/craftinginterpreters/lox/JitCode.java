@@ -0,0 +1,16 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * The JVM code the JitCompiler generated for a function declaration.
+ * Each one is an instance of a hidden class implementing this interface, which keeps
+ * the tokens, nodes and boxed literals the code refers to in a field of its own.
+ */
+interface JitCode {
+    // Returned instead of a value when the function ends in a tail call to a LoxFunction.
+    // The call is left in the Interpreter's tail call fields, as a tree-walked return would leave it.
+    Object TAIL_CALL = new Object();
+
+    // The code starts by loading the receiver and the arguments from the running frame of
+    // stack, as LoxFunction.newFrame() left them.
+    Object call(Interpreter interpreter, Object[] upvalues, ValueStack stack);
+}
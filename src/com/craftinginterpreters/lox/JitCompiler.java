@@ -0,0 +1,511 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.ClassWriter.*;
+
+/**
+ * Compiles a function declaration to a hidden JVM class implementing JitCode.
+ * The function's locals become JVM locals, variables of the enclosing functions are
+ * read from its upvalues and everything else calls into JitRuntime.
+ * A function that declares functions or classes of its own, or uses super, would
+ * need its locals in its ValueStack frame for closures to capture, so it isn't
+ * compiled and keeps being tree-walked.
+ */
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // Thrown for anything the compiler doesn't handle.
+    static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private static final String LOX = "com/craftinginterpreters/lox/";
+    private static final String JIT_CODE = LOX + "JitCode";
+    private static final String RUNTIME = LOX + "JitRuntime";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String TOKEN = LOX + "Token";
+    private static final String INSTANCE = LOX + "LoxInstance";
+    private static final String FUNCTION = LOX + "LoxFunction";
+
+    private static final String CONSTRUCTOR_DESCRIPTOR = "([Ljava/lang/Object;)V";
+    private static final String CALL_DESCRIPTOR = "(L" + LOX + "Interpreter;[Ljava/lang/Object;L"
+            + LOX + "ValueStack;)Ljava/lang/Object;";
+
+    // The JVM locals of the generated call method, the function's own locals come after these.
+    private static final int INTERPRETER = 1;
+    private static final int UPVALUES = 2;
+    private static final int STACK = 3;
+    private static final int CONSTANTS = 4;
+    private static final int FIRST_LOCAL = 5;
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private final Stmt.Function function;
+    private final boolean isMethod;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+
+    private ClassWriter.Code code;
+
+    private JitCompiler(Stmt.Function function, boolean isMethod) {
+        this.function = function;
+        this.isMethod = isMethod;
+    }
+
+    static JitCode compile(Stmt.Function function, boolean isMethod) {
+        JitCompiler compiler = new JitCompiler(function, isMethod);
+        byte[] bytes = compiler.generate();
+
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true);
+            MethodHandle constructor = hidden.findConstructor(hidden.lookupClass(),
+                    MethodType.methodType(void.class, Object[].class));
+            return (JitCode) constructor.invoke(compiler.constants.toArray());
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new AssertionError(error);
+        }
+    }
+
+    private byte[] generate() {
+        String className = LOX + "JitFunction$" + function.name.lexeme;
+        ClassWriter writer = new ClassWriter(className, OBJECT, JIT_CODE);
+
+        // The constructor keeps the constants the code refers to in a field of its own.
+        writer.addField(ACC_FINAL, "constants", "[Ljava/lang/Object;");
+        ClassWriter.Code constructor = writer.newCode(2);
+        constructor.load(0);
+        constructor.invokeSpecial(OBJECT, "<init>", "()V");
+        constructor.load(0);
+        constructor.load(1);
+        constructor.putField(className, "constants", "[Ljava/lang/Object;");
+        constructor.op(RETURN, 0);
+        writer.addMethod(0, "<init>", CONSTRUCTOR_DESCRIPTOR, constructor);
+
+        code = writer.newCode(FIRST_LOCAL);
+        code.load(0);
+        code.getField(className, "constants", "[Ljava/lang/Object;");
+        code.store(CONSTANTS);
+
+        // Copy the receiver and the arguments out of the frame LoxFunction set up.
+        // The other locals start out nil, and each keeps its Resolver slot.
+        int parameters = function.params.size() + (isMethod ? 1 : 0);
+        for (int i = 0; i < function.frameSize; i++) {
+            if (i < parameters) {
+                code.load(STACK);
+                code.pushInt(i);
+                code.invokeVirtual(LOX + "ValueStack", "get", "(I)Ljava/lang/Object;");
+            } else {
+                code.op(ACONST_NULL, 1);
+            }
+            code.store(local(i));
+        }
+
+        for (Stmt statement : function.body) {
+            compile(statement);
+        }
+
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        // It implements an interface method, which is public.
+        writer.addMethod(ACC_PUBLIC, "call", CALL_DESCRIPTOR, code);
+
+        return writer.toBytes();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("class declaration");
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        ClassWriter.Label top = new ClassWriter.Label();
+        ClassWriter.Label end = new ClassWriter.Label();
+
+        if (stmt.initializer != null) compile(stmt.initializer);
+
+        code.mark(top);
+        if (stmt.condition != null) {
+            condition(stmt.condition);
+            code.jump(IFEQ, end);
+        }
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            code.op(POP, -1);
+        }
+        code.jump(GOTO, top);
+        code.unreachable();
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("function declaration");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassWriter.Label elseBranch = new ClassWriter.Label();
+        ClassWriter.Label end = new ClassWriter.Label();
+
+        condition(stmt.condition);
+        code.jump(IFEQ, elseBranch);
+        compile(stmt.thenBranch);
+        code.jump(GOTO, end);
+        code.unreachable();
+
+        code.mark(elseBranch);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        code.invokeStatic(RUNTIME, "print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.isTailCall) {
+            call((Expr.Call) stmt.value, true);
+        } else if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+
+        code.op(ARETURN, -1);
+        code.unreachable();
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+
+        code.store(local(stmt.slot));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        ClassWriter.Label top = new ClassWriter.Label();
+        ClassWriter.Label end = new ClassWriter.Label();
+
+        code.mark(top);
+        condition(stmt.condition);
+        code.jump(IFEQ, end);
+        compile(stmt.body);
+        code.jump(GOTO, top);
+        code.unreachable();
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+
+        if (expr.upvalue == -1 && expr.slot == -1) {
+            code.load(INTERPRETER);
+            code.pushInt(expr.global);
+            constant(expr.name, TOKEN);
+            code.invokeStatic(RUNTIME, "assignGlobal", "(Ljava/lang/Object;L" + LOX + "Interpreter;IL" + TOKEN + ";)Ljava/lang/Object;");
+        } else if (expr.upvalue == -1) {
+            code.op(DUP, 1);
+            code.store(local(expr.slot));
+        } else {
+            // A captured variable that is assigned is always in a Cell.
+            code.load(UPVALUES);
+            code.pushInt(expr.upvalue);
+            code.op(AALOAD, -1);
+            code.invokeStatic(RUNTIME, "assignCell", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case MINUS: arithmetic("subtract", expr.operator); break;
+            case SLASH: arithmetic("divide", expr.operator); break;
+            case STAR: arithmetic("multiply", expr.operator); break;
+            case PLUS: arithmetic("add", expr.operator); break;
+            case GREATER: arithmetic("greater", expr.operator); break;
+            case GREATER_EQUAL: arithmetic("greaterEqual", expr.operator); break;
+            case LESS: arithmetic("less", expr.operator); break;
+            case LESS_EQUAL: arithmetic("lessEqual", expr.operator); break;
+            case BANG_EQUAL:
+                code.invokeStatic(RUNTIME, "notEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+            case EQUAL_EQUAL:
+                code.invokeStatic(RUNTIME, "equal", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, false);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        constant(expr.name, TOKEN);
+        code.invokeStatic(RUNTIME, "instance", "(Ljava/lang/Object;L" + TOKEN + ";)L" + INSTANCE + ";");
+        constant(expr, LOX + "Expr$Get");
+        code.invokeStatic(RUNTIME, "property", "(L" + INSTANCE + ";L" + LOX + "Expr$Get;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    // Compiled code makes the call, the JVM inlines what is hot in it.
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        call(expr.call, false);
+        return null;
+    }
+
+    // The JVM hoists what doesn't change in a compiled loop itself.
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            code.op(ACONST_NULL, 1);
+        } else if (expr.value instanceof Boolean) {
+            code.getStatic("java/lang/Boolean", (boolean) expr.value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else {
+            // The literal's value is boxed once, here, rather than every time it is evaluated.
+            constant(expr.runtimeValue, OBJECT);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        ClassWriter.Label end = new ClassWriter.Label();
+
+        // The left operand is the result if it decides the outcome, otherwise it is popped.
+        compile(expr.left);
+        code.op(DUP, 1);
+        code.invokeStatic(LOX + "Interpreter", "isTruthy", "(Ljava/lang/Object;)Z");
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP, -1);
+        compile(expr.right);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        constant(expr.name, TOKEN);
+        code.invokeStatic(RUNTIME, "fieldTarget", "(Ljava/lang/Object;L" + TOKEN + ";)L" + INSTANCE + ";");
+        compile(expr.value);
+
+        // Keep a copy of the value underneath as the result of the assignment.
+        code.op(DUP_X1, 1);
+        constant(expr, LOX + "Expr$Set");
+        code.invokeStatic(RUNTIME, "set", "(L" + INSTANCE + ";Ljava/lang/Object;L" + LOX + "Expr$Set;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported("super");
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        variable(expr.keyword, expr.slot, expr.upvalue, -1, false);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case MINUS:
+                constant(expr.operator, TOKEN);
+                code.invokeStatic(RUNTIME, "negate", "(Ljava/lang/Object;L" + TOKEN + ";)Ljava/lang/Object;");
+                break;
+            case BANG:
+                code.invokeStatic(RUNTIME, "not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+                break;
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        variable(expr.name, expr.slot, expr.upvalue, expr.global, expr.inCell);
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // Leaves the condition's truthiness on the stack as a JVM boolean.
+    private void condition(Expr expr) {
+        compile(expr);
+        code.invokeStatic(LOX + "Interpreter", "isTruthy", "(Ljava/lang/Object;)Z");
+    }
+
+    private void arithmetic(String name, Token operator) {
+        constant(operator, TOKEN);
+        code.invokeStatic(RUNTIME, name, "(Ljava/lang/Object;Ljava/lang/Object;L" + TOKEN + ";)Ljava/lang/Object;");
+    }
+
+    // A tail call to a LoxFunction isn't made but leaves JitCode.TAIL_CALL, see JitRuntime.tailCall().
+    private void call(Expr.Call expr, boolean isTailCall) {
+        String callDescriptor = "([Ljava/lang/Object;L" + LOX + "Interpreter;L" + TOKEN + ";)Ljava/lang/Object;";
+
+        if (expr.callee instanceof Expr.Super) throw new Unsupported("super");
+
+        if (!(expr.callee instanceof Expr.Get)) {
+            compile(expr.callee);
+            arguments(expr);
+            code.invokeStatic(RUNTIME, isTailCall ? "tailCall" : "call", "(Ljava/lang/Object;" + callDescriptor.substring(1));
+            return;
+        }
+
+        // Invoke the method on the instance without binding it, as Interpreter.invoke() does.
+        Expr.Get get = (Expr.Get) expr.callee;
+        ClassWriter.Label field = new ClassWriter.Label();
+        ClassWriter.Label end = new ClassWriter.Label();
+
+        compile(get.object);
+        constant(get.name, TOKEN);
+        code.invokeStatic(RUNTIME, "instance", "(Ljava/lang/Object;L" + TOKEN + ";)L" + INSTANCE + ";");
+        code.op(DUP, 1);
+        constant(get, LOX + "Expr$Get");
+        code.invokeStatic(RUNTIME, "method", "(L" + INSTANCE + ";L" + LOX + "Expr$Get;)L" + FUNCTION + ";");
+        code.op(DUP, 1);
+        code.jump(IFNULL, field);
+
+        arguments(expr);
+        code.invokeStatic(RUNTIME, isTailCall ? "tailInvoke" : "invoke",
+                "(L" + INSTANCE + ";L" + FUNCTION + ";" + callDescriptor.substring(1));
+        code.jump(GOTO, end);
+        code.unreachable();
+
+        // A field holding a function shadows the method.
+        code.mark(field);
+        code.op(POP, -1);
+        constant(get, LOX + "Expr$Get");
+        code.invokeStatic(RUNTIME, "property", "(L" + INSTANCE + ";L" + LOX + "Expr$Get;)Ljava/lang/Object;");
+        arguments(expr);
+        code.invokeStatic(RUNTIME, isTailCall ? "tailCall" : "call", "(Ljava/lang/Object;" + callDescriptor.substring(1));
+        code.mark(end);
+    }
+
+    // Pushes the arguments as an array, followed by the interpreter and the call's paren.
+    private void arguments(Expr.Call expr) {
+        code.pushInt(expr.arguments.size());
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.pushInt(i);
+            compile(expr.arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+
+        code.load(INTERPRETER);
+        constant(expr.paren, TOKEN);
+    }
+
+    private void variable(Token name, int slot, int upvalue, int global, boolean inCell) {
+        if (upvalue == -1 && slot == -1) {
+            code.load(INTERPRETER);
+            code.pushInt(global);
+            constant(name, TOKEN);
+            code.invokeStatic(RUNTIME, "getGlobal", "(L" + LOX + "Interpreter;IL" + TOKEN + ";)Ljava/lang/Object;");
+        } else if (upvalue == -1) {
+            code.load(local(slot));
+        } else {
+            code.load(UPVALUES);
+            code.pushInt(upvalue);
+            code.op(AALOAD, -1);
+            if (inCell) code.invokeStatic(RUNTIME, "getCell", "(Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+    }
+
+    // The function's locals are JVM locals, in the order of their Resolver slots.
+    private int local(int slot) {
+        return FIRST_LOCAL + slot;
+    }
+
+    // Loads the object from the constants array, cast to the given class.
+    private void constant(Object value, String type) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+
+        code.load(CONSTANTS);
+        code.pushInt(index);
+        code.op(AALOAD, -1);
+        if (!type.equals(OBJECT)) code.type(CHECKCAST, type);
+    }
+}
@@ -0,0 +1,171 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The operations JIT-compiled code calls into.
+ * Each one does what the Interpreter's visit method for the same node does,
+ * down to the runtime errors, so a function behaves the same once it is compiled.
+ */
+final class JitRuntime {
+    private JitRuntime() {}
+
+    static Object getGlobal(Interpreter interpreter, int slot, Token name) {
+        return interpreter.globals.get(slot, name);
+    }
+
+    static Object assignGlobal(Object value, Interpreter interpreter, int slot, Token name) {
+        interpreter.globals.assign(slot, name, value);
+        return value;
+    }
+
+    static Object getCell(Object cell) {
+        return ((Cell) cell).value;
+    }
+
+    static Object assignCell(Object value, Object cell) {
+        ((Cell) cell).value = value;
+        return value;
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (Numbers.isNumber(left) && Numbers.isNumber(right)) {
+            return Numbers.add(left, right);
+        }
+
+        if (Rope.isString(left) && Rope.isString(right)) {
+            return Rope.concatenate(left, right);
+        }
+
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        BinaryOperation.checkNumberOperands(operator, left, right);
+        return Numbers.subtract(left, right);
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        BinaryOperation.checkNumberOperands(operator, left, right);
+        return Numbers.multiply(left, right);
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        BinaryOperation.checkNumberOperands(operator, left, right);
+        return Numbers.divide(left, right);
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        BinaryOperation.checkNumberOperands(operator, left, right);
+        return Numbers.greater(left, right);
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator) {
+        BinaryOperation.checkNumberOperands(operator, left, right);
+        return Numbers.greaterEqual(left, right);
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        BinaryOperation.checkNumberOperands(operator, left, right);
+        return Numbers.less(left, right);
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator) {
+        BinaryOperation.checkNumberOperands(operator, left, right);
+        return Numbers.lessEqual(left, right);
+    }
+
+    static Object equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object negate(Object right, Token operator) {
+        if (!Numbers.isNumber(right)) {
+            throw new RuntimeError(operator, "Operand must be a number.");
+        }
+        return Numbers.negate(right);
+    }
+
+    static Object not(Object right) {
+        return !Interpreter.isTruthy(right);
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        LoxCallable function = Calls.callable(callee, arguments.length, paren);
+        List<Object> list = Arrays.asList(arguments);
+        if (function instanceof LoxFunction) {
+            LoxFunction loxFunction = (LoxFunction) function;
+            return loxFunction.invoke(interpreter, loxFunction.receiver, list);
+        }
+
+        return function.call(interpreter, list);
+    }
+
+    static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        LoxCallable function = Calls.callable(callee, arguments.length, paren);
+        List<Object> list = Arrays.asList(arguments);
+        if (function instanceof LoxFunction) {
+            LoxFunction loxFunction = (LoxFunction) function;
+            return tailCall(loxFunction, loxFunction.receiver, list, interpreter);
+        }
+
+        return function.call(interpreter, list);
+    }
+
+    // The receiver of object.method(arguments), checked before the arguments are evaluated.
+    static LoxInstance instance(Object object, Token name) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+        return (LoxInstance) object;
+    }
+
+    // The unbound method, or null if the property is a field.
+    static LoxFunction method(LoxInstance instance, Expr.Get get) {
+        return get.cache.getMethod(instance, get.name);
+    }
+
+    static Object property(LoxInstance instance, Expr.Get get) {
+        return get.cache.get(instance, get.name);
+    }
+
+    static Object invoke(LoxInstance instance, LoxFunction method, Object[] arguments,
+                         Interpreter interpreter, Token paren) {
+        Calls.checkArity(method, arguments.length, paren);
+        return method.invoke(interpreter, instance, Arrays.asList(arguments));
+    }
+
+    static Object tailInvoke(LoxInstance instance, LoxFunction method, Object[] arguments,
+                             Interpreter interpreter, Token paren) {
+        Calls.checkArity(method, arguments.length, paren);
+        return tailCall(method, instance, Arrays.asList(arguments), interpreter);
+    }
+
+    static LoxInstance fieldTarget(Object object, Token name) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+        return (LoxInstance) object;
+    }
+
+    static void set(LoxInstance instance, Object value, Expr.Set set) {
+        instance.set(set.name, value, set.cache);
+    }
+
+    private static Object tailCall(LoxFunction function, LoxInstance receiver, List<Object> arguments,
+                                   Interpreter interpreter) {
+        interpreter.tailCallee = function;
+        interpreter.tailReceiver = receiver;
+        interpreter.tailFrame = function.frame(interpreter, receiver, arguments);
+        return JitCode.TAIL_CALL;
+    }
+}
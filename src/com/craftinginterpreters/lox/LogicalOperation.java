@@ -0,0 +1,41 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Decides whether the left operand of a logical expression is its result,
+ * without evaluating the right one. It is stored in the node and specializes
+ * itself the way BinaryOperation does: conditions are nearly always comparisons,
+ * so the specialized operations expect the left operand to be a Boolean.
+ */
+interface LogicalOperation {
+    boolean decides(Expr.Logical expr, Object left);
+
+    LogicalOperation UNINITIALIZED = LogicalOperation::uninitialized;
+    LogicalOperation AND_BOOLEAN = LogicalOperation::andBoolean;
+    LogicalOperation OR_BOOLEAN = LogicalOperation::orBoolean;
+    LogicalOperation AND = (expr, left) -> !Interpreter.isTruthy(left);
+    LogicalOperation OR = (expr, left) -> Interpreter.isTruthy(left);
+
+    private static boolean uninitialized(Expr.Logical expr, Object left) {
+        boolean isOr = expr.operator.type == TokenType.OR;
+        if (left instanceof Boolean) {
+            expr.operation = isOr ? OR_BOOLEAN : AND_BOOLEAN;
+        } else {
+            expr.operation = isOr ? OR : AND;
+        }
+        return expr.operation.decides(expr, left);
+    }
+
+    private static boolean andBoolean(Expr.Logical expr, Object left) {
+        if (left instanceof Boolean) return !(boolean) left;
+
+        expr.operation = AND;
+        return AND.decides(expr, left);
+    }
+
+    private static boolean orBoolean(Expr.Logical expr, Object left) {
+        if (left instanceof Boolean) return (boolean) left;
+
+        expr.operation = OR;
+        return OR.decides(expr, left);
+    }
+}
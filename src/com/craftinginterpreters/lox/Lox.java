@@ -6,11 +6,21 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
 
     private static final Interpreter interpreter = new Interpreter();
+    private static final VM vm = new VM();
+    private static final ClosureCompiler closureCompiler = new ClosureCompiler(interpreter);
+
+    // Run the bytecode VM instead of walking the tree, selected with --vm.
+    // --jit keeps walking the tree but compiles hot functions to JVM bytecode.
+    private static boolean useVm = false;
+    // Compile the tree to closures once and run those, selected with --closures.
+    private static boolean useClosures = false;
 
     /**
      * For exit codes, I’m using the conventions defined in the UNIX “sysexits.h” header.
@@ -21,11 +31,18 @@ public class Lox {
     static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        useVm = arguments.remove("--vm");
+        useClosures = arguments.remove("--closures");
+        if (arguments.remove("--jit")) {
+            interpreter.jit = new Jit();
+        }
+
+        if (arguments.size() > 1) {
+            System.out.println("Usage: jlox [--vm | --jit | --closures] [script]");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        } else if (arguments.size() == 1) {
+            runFile(arguments.get(0));
         } else {
             runPrompt();
         }
@@ -67,12 +84,14 @@ public class Lox {
         // Stop if there was a syntax error.
         if (hadError) return;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(interpreter.globals);
         resolver.resolve(statements);
 
         // Stop if there was a resolution error.
         if (hadError) return;
 
+        new Optimizer().optimize(statements);
+
         AstPrinter astPrinter = new AstPrinter();
         astPrinter.print(statements);
 
@@ -80,7 +99,13 @@ public class Lox {
 //        astPrinter.print();
 
         // TODO > Question > Why is interpreter static field and scanner and parser not?
-        interpreter.interpret(statements);
+        if (useVm) {
+            vm.interpret(statements);
+        } else if (useClosures) {
+            closureCompiler.interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
     }
 
     static void error(int line, String message) {
@@ -97,7 +122,7 @@ public class Lox {
 
     static void runtimeError(RuntimeError error) {
         System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
+                "\n[line " + error.line + "]");
         hadRuntimeError = true;
     }
 
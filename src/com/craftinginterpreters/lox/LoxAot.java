@@ -0,0 +1,166 @@
+package com.craftinginterpreters.lox;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Compiles a Lox script ahead of time to a runnable jar:
+ *
+ *   jloxc script.lox [script.jar]
+ *   java -jar script.jar
+ *
+ * The script is scanned, parsed and resolved here, once. The jar holds the program
+ * as JVM classes together with the small runtime in the aot package, so running it
+ * skips straight to executing the code. It needs a JDK, for the Java compiler.
+ */
+public class LoxAot {
+    private static final String RUNTIME_PATH = AotCompiler.PACKAGE.replace('.', '/') + "/";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: jloxc [script] [jar]");
+            System.exit(64);
+        }
+
+        Path script = Paths.get(args[0]);
+        Path jar = Paths.get(args.length == 2 ? args[1] : args[0].replaceAll("\\.lox$", "") + ".jar");
+
+        byte[] bytes = Files.readAllBytes(script);
+        String source = compile(new String(bytes, Charset.defaultCharset()), script.getFileName().toString());
+
+        // Stop if there was a syntax or resolution error.
+        if (source == null) System.exit(65);
+
+        Path classes = Files.createTempDirectory("jloxc");
+        try {
+            javac(source, classes);
+            writeJar(classes, jar);
+        } finally {
+            try (Stream<Path> paths = Files.walk(classes)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static String compile(String source, String sourceName) {
+        Scanner scanner = new Scanner(source);
+        List<Token> tokens = scanner.scanTokens();
+
+        Parser parser = new Parser(tokens);
+        List<Stmt> statements = parser.parse();
+        if (Lox.hadError) return null;
+
+        // The compiled program binds its globals by name, so the slots the Resolver gives them go unused.
+        Resolver resolver = new Resolver(new Environment());
+        resolver.resolve(statements);
+        if (Lox.hadError) return null;
+
+        new Optimizer().optimize(statements);
+
+        return new AotCompiler(sourceName).compile(statements);
+    }
+
+    // Compiles the generated source against the runtime classes this class was loaded with.
+    private static void javac(String source, Path classes) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.err.println("jloxc needs a JDK to compile the script.");
+            System.exit(70);
+        }
+
+        Path file = classes.resolve(AotCompiler.CLASS_NAME + ".java");
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+
+        int status = compiler.run(null, null, null,
+                "-encoding", "UTF-8", "-nowarn",
+                "-cp", System.getProperty("java.class.path"),
+                "-d", classes.toString(), file.toString());
+        Files.delete(file);
+        if (status != 0) {
+            System.err.println("Could not compile the generated code.");
+            System.exit(70);
+        }
+    }
+
+    private static void writeJar(Path classes, Path jar) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, AotCompiler.PACKAGE + "." + AotCompiler.CLASS_NAME);
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            List<Path> compiled = new ArrayList<>();
+            try (Stream<Path> paths = Files.walk(classes)) {
+                paths.filter(Files::isRegularFile).forEach(compiled::add);
+            }
+            for (Path path : compiled) {
+                String name = classes.relativize(path).toString().replace('\\', '/');
+                try (InputStream in = Files.newInputStream(path)) {
+                    write(out, name, in);
+                }
+            }
+
+            copyRuntime(out);
+        }
+    }
+
+    // Copies the runtime's class files from wherever this class was loaded from, a directory or a jar.
+    private static void copyRuntime(JarOutputStream out) throws IOException {
+        Path location;
+        try {
+            location = Paths.get(LoxAot.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException error) {
+            throw new IOException(error);
+        }
+
+        if (Files.isDirectory(location)) {
+            List<Path> runtime = new ArrayList<>();
+            try (Stream<Path> paths = Files.list(location.resolve(RUNTIME_PATH))) {
+                paths.filter(path -> path.toString().endsWith(".class")).forEach(runtime::add);
+            }
+            for (Path path : runtime) {
+                try (InputStream in = Files.newInputStream(path)) {
+                    write(out, RUNTIME_PATH + path.getFileName(), in);
+                }
+            }
+            return;
+        }
+
+        try (JarFile jar = new JarFile(location.toFile())) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (!name.startsWith(RUNTIME_PATH) || !name.endsWith(".class")) continue;
+                if (name.indexOf('/', RUNTIME_PATH.length()) != -1) continue;
+
+                try (InputStream in = jar.getInputStream(entry)) {
+                    write(out, name, in);
+                }
+            }
+        }
+    }
+
+    private static void write(JarOutputStream out, String name, InputStream in) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        in.transferTo(out);
+        out.closeEntry();
+    }
+}
@@ -1,29 +1,41 @@
 package com.craftinginterpreters.lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
+
+    // Every method an instance of this class responds to, inherited ones included,
+    // so looking one up never has to walk the superclass chain.
+    // It is built once when the class is created and never changes afterwards.
     private final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer;
+
+    // Instances of different classes never share a shape,
+    // which is why a shape can stand in for the class in an InlineCache.
+    final Shape emptyShape = new Shape(this);
+    // The most fields an instance of this class has had so far.
+    int expectedFields = 0;
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
-    }
-
-    LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
 
+        // Copy the inherited methods down first, so the class's own methods override them.
+        Map<String, LoxFunction> table = new HashMap<>();
         if (superclass != null) {
-            return superclass.findMethod(name);
+            table.putAll(superclass.methods);
         }
+        table.putAll(methods);
+        this.methods = table;
+        this.initializer = table.get("init");
+    }
 
-        return null;
+    LoxFunction findMethod(String name) {
+        return methods.get(name);
     }
 
     @Override
@@ -33,7 +45,6 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) {
             return 0;
         }
@@ -43,9 +54,58 @@ public class LoxClass implements LoxCallable {
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
+        }
+
+        return instance;
+    }
+
+    // The arguments go straight into the initializer's frame.
+    @Override
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            initializer.invoke(interpreter, instance, initializer.newFrame(interpreter, instance));
+        }
+
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            int frame = initializer.newFrame(interpreter, instance);
+            initializer.setArgument(interpreter, frame, 0, a);
+            initializer.invoke(interpreter, instance, frame);
+        }
+
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            int frame = initializer.newFrame(interpreter, instance);
+            initializer.setArgument(interpreter, frame, 0, a);
+            initializer.setArgument(interpreter, frame, 1, b);
+            initializer.invoke(interpreter, instance, frame);
+        }
+
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            int frame = initializer.newFrame(interpreter, instance);
+            initializer.setArgument(interpreter, frame, 0, a);
+            initializer.setArgument(interpreter, frame, 1, b);
+            initializer.setArgument(interpreter, frame, 2, c);
+            initializer.invoke(interpreter, instance, frame);
         }
 
         return instance;
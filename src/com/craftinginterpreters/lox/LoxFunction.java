@@ -4,41 +4,205 @@ import java.util.List;
 
 public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
-    private final Environment closure;
+    // The variables of enclosing functions this function uses, copied out of the
+    // frame it was declared in as the Resolver's captures say. A variable that
+    // is assigned is shared through its Cell.
+    private final Object[] upvalues;
 
+    private final boolean isMethod;
     private final boolean isInitializer;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    // The instance a method was bound to when it was accessed as a value,
+    // e.g. var method = object.method;
+    final LoxInstance receiver;
+
+    // The body compiled by the ClosureCompiler, null when the body is tree-walked.
+    private final ClosureCompiler.Executor body;
+
+    LoxFunction(Stmt.Function declaration, ValueStack closure, boolean isMethod, boolean isInitializer) {
+        this(declaration, capture(declaration, closure), isMethod, isInitializer, null, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, ValueStack closure, boolean isMethod, boolean isInitializer,
+                ClosureCompiler.Executor body) {
+        this(declaration, capture(declaration, closure), isMethod, isInitializer, body, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Object[] upvalues, boolean isMethod, boolean isInitializer,
+                        ClosureCompiler.Executor body, LoxInstance receiver) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.isMethod = isMethod;
         this.isInitializer = isInitializer;
+        this.body = body;
+        this.receiver = receiver;
     }
 
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, upvalues, isMethod, isInitializer, body, instance);
+    }
+
+    // Whether the declaration made this function, see Expr.Inline.
+    boolean isDeclaredBy(Stmt.Function declaration) {
+        return this.declaration == declaration;
+    }
+
+    // Copies the captured variables out of the running frame, the one declaring the function.
+    private static Object[] capture(Stmt.Function declaration, ValueStack closure) {
+        Capture[] captures = declaration.captures;
+        Object[] upvalues = new Object[captures.length];
+        for (int i = 0; i < captures.length; i++) {
+            Capture capture = captures[i];
+            if (capture.isLocal) {
+                upvalues[i] = closure.get(capture.index);
+            } else {
+                upvalues[i] = closure.upvalues[capture.index];
+            }
+        }
+
+        return upvalues;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
-        }
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, receiver, newFrame(interpreter, receiver));
+    }
 
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        int frame = newFrame(interpreter, receiver);
+        setArgument(interpreter, frame, 0, a);
+        return invoke(interpreter, receiver, frame);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        int frame = newFrame(interpreter, receiver);
+        setArgument(interpreter, frame, 0, a);
+        setArgument(interpreter, frame, 1, b);
+        return invoke(interpreter, receiver, frame);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        int frame = newFrame(interpreter, receiver);
+        setArgument(interpreter, frame, 0, a);
+        setArgument(interpreter, frame, 1, b);
+        setArgument(interpreter, frame, 2, c);
+        return invoke(interpreter, receiver, frame);
+    }
+
+    Object invoke(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        return invoke(interpreter, instance, frame(interpreter, instance, arguments));
+    }
+
+    /**
+     * Runs the function in frame, which the caller set up with newFrame() and setArgument().
+     * For a method, instance becomes "this". Plain functions ignore it.
+     * When the body ends in a tail call to another LoxFunction, that call is made
+     * here in a loop rather than from inside the body, so tail-recursive Lox code
+     * runs in constant JVM stack, and in the same frame of the ValueStack: the callee's
+     * frame is moved down over the returning one.
+     * The body runs right here, as JVM code once the function is hot, so that a Lox
+     * call takes as few JVM frames as it can: deep recursion in Lox is deep recursion here.
+     */
+    Object invoke(Interpreter interpreter, LoxInstance instance, int frame) {
+        ValueStack stack = interpreter.stack;
+        int callerBase = stack.base;
+        Object[] callerUpvalues = stack.upvalues;
+
+        LoxFunction function = this;
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            // If we’re in an initializer and execute a return statement,
-            // instead of returning the value (which will always be nil), we again return this.
-            if (isInitializer) return closure.getAt(0, "this");
+            while (true) {
+                stack.base = frame;
+                stack.upvalues = function.upvalues;
+                for (int slot : function.declaration.cellParameters) {
+                    stack.set(slot, new Cell(stack.get(slot)));
+                }
+
+                JitCode code = null;
+                if (function.body == null && interpreter.jit != null) {
+                    code = interpreter.jit.codeFor(function.declaration, function.isMethod);
+                }
+
+                Completion completion;
+                if (function.body != null) {
+                    completion = function.body.execute(stack);
+                } else if (code != null) {
+                    Object value = code.call(interpreter, function.upvalues, stack);
+                    if (value == JitCode.TAIL_CALL) {
+                        completion = Completion.TAIL_CALL;
+                    } else {
+                        interpreter.returnValue = value;
+                        completion = Completion.RETURN;
+                    }
+                } else {
+                    // The loops in the body count towards the function's hotness.
+                    Stmt.Function caller = interpreter.executing;
+                    interpreter.executing = function.declaration;
+                    try {
+                        completion = interpreter.executeBlock(function.declaration.body);
+                    } finally {
+                        interpreter.executing = caller;
+                    }
+                }
+
+                // If we’re in an initializer and execute a return statement,
+                // instead of returning the value (which will always be nil), we again return this.
+                if (function.isInitializer) return instance;
+
+                if (completion == Completion.TAIL_CALL) {
+                    function = interpreter.tailCallee;
+                    instance = interpreter.tailReceiver;
+                    int size = function.declaration.frameSize;
+                    System.arraycopy(stack.slots, interpreter.tailFrame, stack.slots, frame, size);
+                    stack.pop(frame + size);
+                    interpreter.tailCallee = null;
+                    interpreter.tailReceiver = null;
+                    continue;
+                }
+
+                if (completion == Completion.RETURN) {
+                    Object value = interpreter.returnValue;
+                    interpreter.returnValue = null;
+                    return value;
+                }
+
+                return null;
+            }
+        } finally {
+            stack.pop(frame);
+            stack.base = callerBase;
+            stack.upvalues = callerUpvalues;
+        }
+    }
+
+    // A new frame on top of the ValueStack for a call to this function, with nothing
+    // but the receiver in it yet. Returns where it starts, to pass to invoke().
+    // A method's receiver is the first local of its frame, the parameters come right after.
+    int newFrame(Interpreter interpreter, LoxInstance instance) {
+        ValueStack stack = interpreter.stack;
+        int frame = stack.push(declaration.frameSize);
+        if (isMethod) stack.slots[frame] = instance;
+        return frame;
+    }
+
+    void setArgument(Interpreter interpreter, int frame, int index, Object value) {
+        interpreter.stack.slots[frame + (isMethod ? index + 1 : index)] = value;
+    }
 
-            return returnValue.value;
+    int frame(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        int frame = newFrame(interpreter, instance);
+        for (int i = 0; i < arguments.size(); i++) {
+            setArgument(interpreter, frame, i, arguments.get(i));
         }
 
-        if (isInitializer) return closure.getAt(0, "this");
-        return null;
+        return frame;
     }
 
     @Override
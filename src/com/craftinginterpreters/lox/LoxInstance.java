@@ -1,33 +1,51 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    // The shape knows the class and which slot of fields each field name is stored in.
+    Shape shape;
+    Object[] fields;
 
     LoxInstance(LoxClass klass) {
-        this.klass = klass;
+        this.shape = klass.emptyShape;
+        this.fields = klass.expectedFields == 0 ? NO_FIELDS : new Object[klass.expectedFields];
     }
 
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
+    Object get(Token name, InlineCache cache) {
+        return cache.get(this, name);
+    }
+
+    void set(Token name, Object value, InlineCache cache) {
+        cache.set(this, name, value);
+    }
 
-        LoxFunction method = klass.findMethod(name.lexeme);
+    Object bind(LoxFunction method, Token name) {
         if (method != null) return method.bind(this);
 
         throw new RuntimeError(name, "Undefine property '" + name.lexeme + "'.");
     }
 
-    void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    // next is the shape this instance transitions to, its last slot holds the new field.
+    void addField(Shape next, Object value) {
+        int slot = next.size() - 1;
+        if (slot >= fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(next.size(), fields.length * 2));
+        }
+        fields[slot] = value;
+        shape = next;
+
+        // Size the field array of the next instance of this class right away.
+        LoxClass klass = shape.klass;
+        if (next.size() > klass.expectedFields) {
+            klass.expectedFields = next.size();
+        }
     }
 
     @Override
     public String toString() {
-        return klass.name + " instance";
+        return shape.klass.name + " instance";
     }
 }
@@ -0,0 +1,161 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Arithmetic on Lox numbers, which the tree-walking engines represent in two ways.
+ * A number that is integral and no larger than 2^53 in magnitude is a Long, any
+ * other number (fractions, -0, infinities, NaN and larger values) is a Double.
+ * Every double in that range is exactly a long and back, and the operations here
+ * only stay in long arithmetic while the result is exact, so they give the very
+ * same results as doing everything in double. Lox code can't tell the two apart;
+ * counting loops just don't go through floating point, and printing an integer
+ * doesn't have to format a double and strip its ".0".
+ * The Interpreter evaluates the expressions the Resolver knows are numeric without
+ * boxing, with the exact operations on longs below, and falls back to double the
+ * same way, see Interpreter.evaluateNumber().
+ * The bytecode VM and the AOT runtime have their own value representation and
+ * keep every number a Double.
+ */
+final class Numbers {
+    // The largest magnitude up to which every integer is exactly representable as a double.
+    private static final long MAX_EXACT = 1L << 53;
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
+
+    // What the exact operations on longs return when the result isn't a Long. No Long
+    // is this large, and the caller then computes the result in double.
+    static final long NOT_EXACT = Long.MIN_VALUE;
+
+    private Numbers() {}
+
+    static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    static double toDouble(Object number) {
+        if (number instanceof Long) return (long) number;
+        return (double) number;
+    }
+
+    // The representation of a number computed in double.
+    private static Object valueOf(double value) {
+        long integer = (long) value;
+        if (integer == value && integer <= MAX_EXACT && integer >= -MAX_EXACT
+                && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO_BITS) {
+            return integer;
+        }
+
+        return value;
+    }
+
+    // The value the tree-walking engines use for a literal, see Expr.Literal.runtimeValue.
+    static Object fromLiteral(Object value) {
+        if (value instanceof Double) return valueOf((double) value);
+        return value;
+    }
+
+    // The operands of the operations below must be numbers.
+
+    static Object add(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long result = addExact((long) left, (long) right);
+            if (result != NOT_EXACT) return result;
+        }
+        return valueOf(toDouble(left) + toDouble(right));
+    }
+
+    static Object subtract(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long result = subtractExact((long) left, (long) right);
+            if (result != NOT_EXACT) return result;
+        }
+        return valueOf(toDouble(left) - toDouble(right));
+    }
+
+    static Object multiply(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long result = multiplyExact((long) left, (long) right);
+            if (result != NOT_EXACT) return result;
+        }
+        return valueOf(toDouble(left) * toDouble(right));
+    }
+
+    static Object divide(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long result = divideExact((long) left, (long) right);
+            if (result != NOT_EXACT) return result;
+        }
+        return valueOf(toDouble(left) / toDouble(right));
+    }
+
+    static Object negate(Object number) {
+        if (number instanceof Long) {
+            long result = negateExact((long) number);
+            if (result != NOT_EXACT) return result;
+        }
+        return valueOf(-toDouble(number));
+    }
+
+    // The operations on the values of two Longs, or NOT_EXACT.
+    // Two Longs have an exact sum or difference in long, and converting that to double
+    // rounds it the same way computing it in double would.
+
+    static long addExact(long left, long right) {
+        return exact(left + right);
+    }
+
+    static long subtractExact(long left, long right) {
+        return exact(left - right);
+    }
+
+    static long multiplyExact(long left, long right) {
+        long product = left * right;
+
+        // In double, zero times a negative number is -0.
+        if (product == 0 && (left < 0 || right < 0)) return NOT_EXACT;
+
+        // The product is exact if it didn't overflow.
+        if (Math.multiplyHigh(left, right) != (product >> 63)) return NOT_EXACT;
+        return exact(product);
+    }
+
+    static long divideExact(long left, long right) {
+        if (right != 0 && left % right == 0 && !(left == 0 && right < 0)) return left / right;
+        return NOT_EXACT;
+    }
+
+    static long negateExact(long value) {
+        // In double, negating zero gives -0.
+        if (value == 0) return NOT_EXACT;
+        return -value;
+    }
+
+    private static long exact(long value) {
+        if (value <= MAX_EXACT && value >= -MAX_EXACT) return value;
+        return NOT_EXACT;
+    }
+
+    static boolean greater(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return (long) left > (long) right;
+        return toDouble(left) > toDouble(right);
+    }
+
+    static boolean greaterEqual(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return (long) left >= (long) right;
+        return toDouble(left) >= toDouble(right);
+    }
+
+    static boolean less(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return (long) left < (long) right;
+        return toDouble(left) < toDouble(right);
+    }
+
+    static boolean lessEqual(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return (long) left <= (long) right;
+        return toDouble(left) <= toDouble(right);
+    }
+
+    // Equal as the Doubles they stand for would be, see Interpreter.isEqual().
+    static boolean equal(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return (long) left == (long) right;
+        return Double.valueOf(toDouble(left)).equals(toDouble(right));
+    }
+}
@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class ObjClass {
+    final String name;
+    // OP_INHERIT copies the superclass's methods down before the class's own methods are added.
+    final Map<String, ObjClosure> methods = new HashMap<>();
+    ObjClosure initializer = null;
+
+    ObjClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
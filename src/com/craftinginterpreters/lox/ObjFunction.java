@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox;
+
+// The compiled form of a function declaration (or of the whole script).
+// At runtime it is always wrapped in an ObjClosure.
+class ObjFunction {
+    final String name;
+    int arity = 0;
+    int upvalueCount = 0;
+    // The most stack slots a call of this function uses, its locals included.
+    int maxStack = 0;
+    final Chunk chunk = new Chunk();
+
+    ObjFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+class ObjNative {
+    // The arguments are in args[first] up to args[first + argCount - 1].
+    interface NativeFn {
+        Object call(int argCount, Object[] args, int first);
+    }
+
+    final int arity;
+    final NativeFn function;
+
+    ObjNative(int arity, NativeFn function) {
+        this.arity = arity;
+        this.function = function;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,19 @@
+package com.craftinginterpreters.lox;
+
+// A variable captured by a closure.
+// While the variable is still on the VM's stack the upvalue is open and only points
+// to its slot. When the variable goes out of scope the VM closes the upvalue by
+// moving the value in.
+class ObjUpvalue {
+    int slot;
+    Object closed = null;
+    boolean isClosed = false;
+
+    // The open upvalues form a list sorted by slot, the topmost one first.
+    ObjUpvalue next;
+
+    ObjUpvalue(int slot, ObjUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -0,0 +1,639 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Simplifies the resolved program before it runs. Operations on literals are folded
+ * into literals, groupings are dropped, arithmetic that can't change a number (x * 1,
+ * x / 1, x - 0, - -x) is left out, and if and while statements with a literal
+ * condition lose the branch that can't run. An operation that fails at runtime,
+ * like 1 + "a", is left for the runtime to report.
+ *
+ * Calls to small functions declared at the top level become Expr.Inline nodes, which
+ * evaluate the function's body in place of the call for as long as the global still
+ * holds the function.
+ *
+ * An expression in a loop that can't change while the loop runs is hoisted into an
+ * Expr.Invariant, which keeps its value in a new slot of the frame once the loop has
+ * evaluated it. The expression is still evaluated where it was the first time, so it
+ * fails, if it does, as it would have. Only code that runs in a frame has its loops
+ * optimized, since the value needs a slot.
+ *
+ * The fields of the tree are final, so a node whose children change is replaced by
+ * a copy that keeps the Resolver's annotations. Lists of statements and arguments
+ * are updated in place, so functions and classes stay the nodes the Resolver saw.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // What fold() returns for an operation it leaves for the runtime.
+    private static final Object NOT_FOLDED = new Object();
+    // The most nodes the body of an inlined function has.
+    private static final int MAX_INLINED_SIZE = 8;
+
+    // The functions that calls are inlined to, by name.
+    private final Map<String, Stmt.Function> inlined = new HashMap<>();
+
+    // The size of the frame the code being optimized runs in, which grows by a slot for
+    // each hoisted expression, or -1 at the top level of the script outside any frame.
+    private int frameSize = -1;
+    // The loops around the code being optimized in that frame, outermost first.
+    private List<Loop> loops = new ArrayList<>();
+    // Set while optimizing an expression that is being hoisted as a whole.
+    private boolean isHoisting = false;
+
+    /**
+     * What the code of a loop may change each time around: the locals and globals it
+     * assigns, and whether it makes calls or sets properties, after which any global or
+     * property may have changed. Functions declared in the loop only count as assigning
+     * their own variable, anything they do happens in a call.
+     */
+    private static class Loop {
+        final Set<Integer> slots = new HashSet<>();
+        final Set<Integer> globals = new HashSet<>();
+        boolean hasCalls = false;
+        boolean hasSets = false;
+        // The slots of the expressions hoisted out of the loop.
+        final List<Integer> invariants = new ArrayList<>();
+
+        void scan(Stmt stmt) {
+            if (stmt instanceof Stmt.Block) {
+                for (Stmt statement : ((Stmt.Block) stmt).statements) scan(statement);
+            } else if (stmt instanceof Stmt.Class) {
+                Stmt.Class declaration = (Stmt.Class) stmt;
+                slots.add(declaration.slot);
+                if (declaration.superclass != null) slots.add(declaration.superclassSlot);
+            } else if (stmt instanceof Stmt.Expression) {
+                scan(((Stmt.Expression) stmt).expression);
+            } else if (stmt instanceof Stmt.For) {
+                Stmt.For loop = (Stmt.For) stmt;
+                if (loop.initializer != null) scan(loop.initializer);
+                if (loop.condition != null) scan(loop.condition);
+                if (loop.increment != null) scan(loop.increment);
+                scan(loop.body);
+            } else if (stmt instanceof Stmt.Function) {
+                slots.add(((Stmt.Function) stmt).slot);
+            } else if (stmt instanceof Stmt.If) {
+                Stmt.If branch = (Stmt.If) stmt;
+                scan(branch.condition);
+                scan(branch.thenBranch);
+                if (branch.elseBranch != null) scan(branch.elseBranch);
+            } else if (stmt instanceof Stmt.Print) {
+                scan(((Stmt.Print) stmt).expression);
+            } else if (stmt instanceof Stmt.Return) {
+                if (((Stmt.Return) stmt).value != null) scan(((Stmt.Return) stmt).value);
+            } else if (stmt instanceof Stmt.Var) {
+                Stmt.Var declaration = (Stmt.Var) stmt;
+                slots.add(declaration.slot);
+                if (declaration.initializer != null) scan(declaration.initializer);
+            } else if (stmt instanceof Stmt.While) {
+                scan(((Stmt.While) stmt).condition);
+                scan(((Stmt.While) stmt).body);
+            }
+        }
+
+        void scan(Expr expr) {
+            if (expr instanceof Expr.Assign) {
+                Expr.Assign assign = (Expr.Assign) expr;
+                if (assign.slot != -1) slots.add(assign.slot);
+                if (assign.global != -1) globals.add(assign.global);
+                scan(assign.value);
+            } else if (expr instanceof Expr.Binary) {
+                scan(((Expr.Binary) expr).left);
+                scan(((Expr.Binary) expr).right);
+            } else if (expr instanceof Expr.Call) {
+                hasCalls = true;
+                scan(((Expr.Call) expr).callee);
+                for (Expr argument : ((Expr.Call) expr).arguments) scan(argument);
+            } else if (expr instanceof Expr.Get) {
+                scan(((Expr.Get) expr).object);
+            } else if (expr instanceof Expr.Grouping) {
+                scan(((Expr.Grouping) expr).expression);
+            } else if (expr instanceof Expr.Inline) {
+                scan(((Expr.Inline) expr).call);
+            } else if (expr instanceof Expr.Invariant) {
+                scan(((Expr.Invariant) expr).expression);
+            } else if (expr instanceof Expr.Logical) {
+                scan(((Expr.Logical) expr).left);
+                scan(((Expr.Logical) expr).right);
+            } else if (expr instanceof Expr.Set) {
+                hasSets = true;
+                scan(((Expr.Set) expr).object);
+                scan(((Expr.Set) expr).value);
+            } else if (expr instanceof Expr.Unary) {
+                scan(((Expr.Unary) expr).right);
+            }
+        }
+
+        // Whether expr has the same value and no effect each time the loop evaluates it.
+        // A variable kept in a Cell may be assigned by a closure the loop calls.
+        boolean isInvariant(Expr expr) {
+            if (expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+            if (expr instanceof Expr.Grouping) return isInvariant(((Expr.Grouping) expr).expression);
+            if (expr instanceof Expr.Variable) {
+                Expr.Variable variable = (Expr.Variable) expr;
+                if (variable.inCell) return false;
+                if (variable.upvalue != -1) return true;
+                if (variable.slot != -1) return !slots.contains(variable.slot);
+                return !hasCalls && !globals.contains(variable.global);
+            }
+            if (expr instanceof Expr.Binary) {
+                return isInvariant(((Expr.Binary) expr).left) && isInvariant(((Expr.Binary) expr).right);
+            }
+            if (expr instanceof Expr.Logical) {
+                return isInvariant(((Expr.Logical) expr).left) && isInvariant(((Expr.Logical) expr).right);
+            }
+            if (expr instanceof Expr.Unary) return isInvariant(((Expr.Unary) expr).right);
+            if (expr instanceof Expr.Get) {
+                return !hasCalls && !hasSets && isInvariant(((Expr.Get) expr).object);
+            }
+            return false;
+        }
+    }
+
+    void optimize(List<Stmt> statements) {
+        findInlined(statements);
+        optimizeAll(statements);
+    }
+
+    /**
+     * A function is inlined if it is declared once at the top level of the script and
+     * its body returns a small expression of its parameters and globals. Without calls
+     * in it the body can't recurse, and a function at the top level captures nothing.
+     * Its body is optimized first, so that what gets inlined is already simplified.
+     * That is the body the calls keep, so it isn't optimized again where the function is declared.
+     */
+    private void findInlined(List<Stmt> statements) {
+        Map<String, Integer> declarations = new HashMap<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function) {
+                declarations.merge(((Stmt.Function) statement).name.lexeme, 1, Integer::sum);
+            }
+        }
+
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Function)) continue;
+
+            Stmt.Function function = (Stmt.Function) statement;
+            if (declarations.get(function.name.lexeme) != 1) continue;
+            if (function.cellParameters.length != 0) continue;
+            if (function.body.size() != 1 || !(function.body.get(0) instanceof Stmt.Return)) continue;
+
+            visitFunctionStmt(function);
+            Expr value = ((Stmt.Return) function.body.get(0)).value;
+            if (value != null && inlinedSize(value) <= MAX_INLINED_SIZE) {
+                inlined.put(function.name.lexeme, function);
+            }
+        }
+    }
+
+    // The number of nodes in an expression, or more than MAX_INLINED_SIZE if it can't be inlined.
+    private static int inlinedSize(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.Variable) return 1;
+        if (expr instanceof Expr.Binary) {
+            return 1 + inlinedSize(((Expr.Binary) expr).left) + inlinedSize(((Expr.Binary) expr).right);
+        }
+        if (expr instanceof Expr.Logical) {
+            return 1 + inlinedSize(((Expr.Logical) expr).left) + inlinedSize(((Expr.Logical) expr).right);
+        }
+        if (expr instanceof Expr.Unary) return 1 + inlinedSize(((Expr.Unary) expr).right);
+        if (expr instanceof Expr.Get) return 1 + inlinedSize(((Expr.Get) expr).object);
+
+        return MAX_INLINED_SIZE + 1;
+    }
+
+    private void optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            // Statements that can't have an effect are dropped.
+            Stmt result = optimize(statement);
+            if (result != null) optimized.add(result);
+        }
+
+        statements.clear();
+        statements.addAll(optimized);
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // An expression is hoisted out of the outermost loop it doesn't change in, if it is
+    // still an operation once it has been simplified.
+    private Expr optimize(Expr expr) {
+        if (isHoisting || loops.isEmpty()) return expr.accept(this);
+
+        Loop loop = null;
+        for (Loop enclosing : loops) {
+            if (enclosing.isInvariant(expr)) {
+                loop = enclosing;
+                break;
+            }
+        }
+        if (loop == null) return expr.accept(this);
+
+        isHoisting = true;
+        Expr result = expr.accept(this);
+        isHoisting = false;
+        if (!(result instanceof Expr.Binary || result instanceof Expr.Logical || result instanceof Expr.Unary
+                || result instanceof Expr.Get)) {
+            return result;
+        }
+
+        Expr.Invariant invariant = new Expr.Invariant(result);
+        invariant.slot = frameSize++;
+        loop.invariants.add(invariant.slot);
+        return invariant;
+    }
+
+    // Starts optimizing the loop's condition, increment and body, after the rest of its
+    // statement. Returns null where the loop's code runs without a frame.
+    private Loop enterLoop(Stmt stmt) {
+        if (frameSize == -1) return null;
+
+        Loop loop = new Loop();
+        loop.scan(stmt);
+        loops.add(loop);
+        return loop;
+    }
+
+    private int[] exitLoop(Loop loop) {
+        if (loop == null) return new int[0];
+
+        loops.remove(loops.size() - 1);
+        return loop.invariants.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Where a statement has to stay, one that was dropped becomes an empty block.
+    private Stmt optimizeBody(Stmt stmt) {
+        Stmt result = optimize(stmt);
+        if (result != null) return result;
+
+        return new Stmt.Block(new ArrayList<>());
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.frameSize == 0) {
+            optimizeAll(stmt.statements);
+            return stmt;
+        }
+
+        // A block at the top level of the script runs in a frame of its own.
+        int enclosingSize = frameSize;
+        List<Loop> enclosingLoops = loops;
+        frameSize = stmt.frameSize;
+        loops = new ArrayList<>();
+
+        optimizeAll(stmt.statements);
+        stmt.frameSize = frameSize;
+
+        frameSize = enclosingSize;
+        loops = enclosingLoops;
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            visitFunctionStmt(method);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression instanceof Expr.Literal) return null;
+
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        // A for statement at the top level of the script runs in a frame of its own.
+        int enclosingSize = frameSize;
+        List<Loop> enclosingLoops = loops;
+        if (stmt.frameSize != 0) {
+            frameSize = stmt.frameSize;
+            loops = new ArrayList<>();
+        }
+
+        Stmt initializer = stmt.initializer != null ? optimize(stmt.initializer) : null;
+        Loop loop = enterLoop(stmt);
+        Expr condition = stmt.condition != null ? optimize(stmt.condition) : null;
+        Expr increment = stmt.increment != null ? optimize(stmt.increment) : null;
+        Stmt body = optimizeBody(stmt.body);
+        int[] invariants = exitLoop(loop);
+
+        if (stmt.frameSize != 0) {
+            stmt.frameSize = frameSize;
+            frameSize = enclosingSize;
+            loops = enclosingLoops;
+        }
+        stmt.invariants = invariants;
+
+        // A loop without a condition runs until it returns, as with a true one.
+        if (condition instanceof Expr.Literal && Interpreter.isTruthy(((Expr.Literal) condition).runtimeValue)) {
+            condition = null;
+        }
+        if (increment instanceof Expr.Literal) increment = null;
+
+        if (initializer == stmt.initializer && condition == stmt.condition && increment == stmt.increment
+                && body == stmt.body) {
+            return stmt;
+        }
+
+        Stmt.For result = new Stmt.For(initializer, condition, increment, body);
+        result.frameSize = stmt.frameSize;
+        result.invariants = invariants;
+        return result;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.isOptimized) return stmt;
+        stmt.isOptimized = true;
+
+        int enclosingSize = frameSize;
+        List<Loop> enclosingLoops = loops;
+        frameSize = stmt.frameSize;
+        loops = new ArrayList<>();
+
+        optimizeAll(stmt.body);
+        stmt.frameSize = frameSize;
+
+        frameSize = enclosingSize;
+        loops = enclosingLoops;
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal) {
+            if (Interpreter.isTruthy(((Expr.Literal) condition).runtimeValue)) return optimize(stmt.thenBranch);
+            return stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        }
+
+        Stmt thenBranch = optimizeBody(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+
+        return new Stmt.Print(stmt.keyword, expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+
+        // An inlined call is no longer a tail call.
+        Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+        result.isTailCall = stmt.isTailCall && value instanceof Expr.Call;
+        return result;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+
+        Stmt.Var result = new Stmt.Var(stmt.name, initializer);
+        result.slot = stmt.slot;
+        result.inCell = stmt.inCell;
+        return result;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Loop loop = enterLoop(stmt);
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal) condition).runtimeValue)) {
+            exitLoop(loop);
+            return null;
+        }
+
+        Stmt body = optimizeBody(stmt.body);
+        int[] invariants = exitLoop(loop);
+
+        Stmt.While result = condition == stmt.condition && body == stmt.body ? stmt : new Stmt.While(condition, body);
+        result.invariants = invariants;
+        return result;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign result = new Expr.Assign(expr.name, value);
+        result.slot = expr.slot;
+        result.upvalue = expr.upvalue;
+        result.global = expr.global;
+        result.inCell = expr.inCell;
+        return result;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Object value = fold(expr.operator.type, ((Expr.Literal) left).runtimeValue,
+                    ((Expr.Literal) right).runtimeValue);
+            if (value != NOT_FOLDED) return literal(value, expr.operator);
+        }
+
+        // Only a number is sure to come out of these unchanged, -0 and NaN included.
+        switch (expr.operator.type) {
+            case STAR:
+                if (Resolver.isNumeric(left) && isNumber(right, 1)) return left;
+                if (Resolver.isNumeric(right) && isNumber(left, 1)) return right;
+                break;
+            case SLASH:
+                if (Resolver.isNumeric(left) && isNumber(right, 1)) return left;
+                break;
+            case MINUS:
+                if (Resolver.isNumeric(left) && isNumber(right, 0)) return left;
+                break;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+
+        Expr.Binary result = new Expr.Binary(left, expr.operator, right);
+        Resolver.markNumeric(result);
+        return result;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            expr.arguments.set(i, optimize(expr.arguments.get(i)));
+        }
+
+        Expr callee = optimize(expr.callee);
+        Expr.Call call = callee == expr.callee ? expr : new Expr.Call(callee, expr.paren, expr.arguments);
+
+        if (callee instanceof Expr.Variable && ((Expr.Variable) callee).global != -1) {
+            Stmt.Function function = inlined.get(((Expr.Variable) callee).name.lexeme);
+            if (function != null && function.params.size() == call.arguments.size()) {
+                return new Expr.Inline(call, function, ((Stmt.Return) function.body.get(0)).value);
+            }
+        }
+
+        return call;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    // A literal left operand decides which operand is the result.
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal) {
+            boolean isTruthy = Interpreter.isTruthy(((Expr.Literal) left).runtimeValue);
+            if (expr.operator.type == TokenType.OR) return isTruthy ? left : right;
+            return isTruthy ? right : left;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).runtimeValue;
+            if (expr.operator.type == TokenType.BANG) return literal(!Interpreter.isTruthy(value), expr.operator);
+            if (Numbers.isNumber(value)) return literal(Numbers.negate(value), expr.operator);
+        }
+
+        if (expr.operator.type == TokenType.MINUS && right instanceof Expr.Unary) {
+            Expr.Unary inner = (Expr.Unary) right;
+            if (inner.operator.type == TokenType.MINUS && Resolver.isNumeric(inner.right)) return inner.right;
+        }
+
+        if (right == expr.right) return expr;
+
+        Expr.Unary result = new Expr.Unary(expr.operator, right);
+        result.isNumeric = expr.isNumeric;
+        return result;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    // Computes a binary operation on two runtime values the way the Interpreter would,
+    // or returns NOT_FOLDED if it would fail.
+    private static Object fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+            case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+        }
+
+        if (operator == TokenType.PLUS && left instanceof String && right instanceof String) {
+            return (String) left + right;
+        }
+
+        if (!Numbers.isNumber(left) || !Numbers.isNumber(right)) return NOT_FOLDED;
+
+        switch (operator) {
+            case PLUS: return Numbers.add(left, right);
+            case MINUS: return Numbers.subtract(left, right);
+            case STAR: return Numbers.multiply(left, right);
+            case SLASH: return Numbers.divide(left, right);
+            case GREATER: return Numbers.greater(left, right);
+            case GREATER_EQUAL: return Numbers.greaterEqual(left, right);
+            case LESS: return Numbers.less(left, right);
+            case LESS_EQUAL: return Numbers.lessEqual(left, right);
+        }
+
+        return NOT_FOLDED;
+    }
+
+    // The parser keeps every number a Double, and the Resolver's runtimeValue is what the
+    // tree-walking engines use. A folded literal is on the line of the operator it replaces.
+    private static Expr.Literal literal(Object value, Token operator) {
+        Object parsed = Numbers.isNumber(value) ? (Object) Numbers.toDouble(value) : value;
+        Expr.Literal literal = new Expr.Literal(parsed);
+        literal.runtimeValue = Numbers.fromLiteral(parsed);
+        literal.line = operator.line;
+        return literal;
+    }
+
+    // Unlike ==, Double.equals() tells 0 and -0 apart.
+    private static boolean isNumber(Expr expr, double number) {
+        return expr instanceof Expr.Literal && Double.valueOf(number).equals(((Expr.Literal) expr).value);
+    }
+}
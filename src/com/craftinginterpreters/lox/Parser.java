@@ -1,7 +1,6 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 // The purpose of the Parser is to take a list of tokens as input
@@ -127,23 +126,7 @@ public class Parser {
 
         Stmt body = statement();
 
-        if (increment != null) {
-            body = new Stmt.Block(
-                    Arrays.asList(
-                            body,
-                            new Stmt.Expression(increment)
-                    )
-            );
-        }
-
-        if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
-
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-
-        return body;
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     private Stmt ifStatement() {
@@ -161,9 +144,10 @@ public class Parser {
     }
 
     private Stmt printStatement() {
+        Token keyword = previousToken();
         Expr value = expression();
         consumeTokenOrThrow(TokenType.SEMICOLON, "Expect ';' after expression.");
-        return new Stmt.Print(value);
+        return new Stmt.Print(keyword, value);
     }
 
     private Stmt returnStatement() {
@@ -355,13 +339,19 @@ public class Parser {
         return new Expr.Call(callee, paren, arguments);
     }
 
+    private Expr.Literal literal(Object value) {
+        Expr.Literal literal = new Expr.Literal(value);
+        literal.line = previousToken().line;
+        return literal;
+    }
+
     private Expr primary() {
-        if (currentTokenMatches(TokenType.FALSE)) return new Expr.Literal(false);
-        if (currentTokenMatches(TokenType.TRUE)) return new Expr.Literal(true);
-        if (currentTokenMatches(TokenType.NIL)) return new Expr.Literal(null);
+        if (currentTokenMatches(TokenType.FALSE)) return literal(false);
+        if (currentTokenMatches(TokenType.TRUE)) return literal(true);
+        if (currentTokenMatches(TokenType.NIL)) return literal(null);
 
         if (currentTokenMatches(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expr.Literal(previousToken().literal);
+            return literal(previousToken().literal);
         }
 
         if (currentTokenMatches(TokenType.SUPER)) {
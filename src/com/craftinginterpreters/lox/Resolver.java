@@ -1,17 +1,65 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
+    // The table the code being resolved will bind its globals in.
+    private final Environment globals;
     private FunctionType currentFunction = FunctionType.NONE;
+    private Frame currentFrame = null;
+
+    // A local variable gets the next free slot in the frame of the function declaring it.
+    // The slots of a scope's locals are free again once the scope ends.
+    private static class Local {
+        final int scope;
+        final int slot;
+        // The Var, Function or Class statement declaring the variable, null for parameters.
+        final Stmt declaration;
+        boolean defined = false;
+
+        // A variable that a closure captures and that is assigned is kept in a Cell.
+        // Whether it is assigned is only known at the end of its scope, so the
+        // expressions using it are collected until then.
+        boolean captured = false;
+        boolean assigned;
+        final List<Expr> uses = new ArrayList<>();
+
+        Local(int scope, int slot, Stmt declaration) {
+            this.scope = scope;
+            this.slot = slot;
+            this.declaration = declaration;
+
+            // A function or class is stored in its variable after closures can have captured it.
+            this.assigned = declaration instanceof Stmt.Function || declaration instanceof Stmt.Class;
+        }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+        boolean inCell() {
+            return captured && assigned;
+        }
+    }
+
+    // The frame the locals being resolved are allocated in: that of a function, with
+    // the variables of enclosing functions it captures, or that of a statement at the
+    // top level of the script.
+    private static class Frame {
+        final Frame enclosing;
+        // The index of the frame's outermost scope in scopes.
+        final int scope;
+        final List<Capture> captures = new ArrayList<>();
+        final Map<Local, Integer> upvalues = new HashMap<>();
+        // The number of locals in scope, and the most there are at any point.
+        int size = 0;
+        int maxSize = 0;
+
+        Frame(Frame enclosing, int scope) {
+            this.enclosing = enclosing;
+            this.scope = scope;
+        }
     }
 
     private enum FunctionType {
@@ -29,6 +77,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private ClassType currentClass = ClassType.NONE;
 
+    /**
+     * Whether expr can only evaluate to a number, unless it throws a runtime error.
+     * The Interpreter evaluates these without boxing their value.
+     * It relies on the Resolver having visited the expression's operands.
+     */
+    static boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Binary) return ((Expr.Binary) expr).isNumeric;
+        if (expr instanceof Expr.Literal) return ((Expr.Literal) expr).value instanceof Double;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).isNumeric;
+        if (expr instanceof Expr.Grouping) return isNumeric(((Expr.Grouping) expr).expression);
+        return false;
+    }
+
+    Resolver(Environment globals) {
+        this.globals = globals;
+    }
+
     void resolve(List<Stmt> statements) {
         for (Stmt statement : statements) {
             resolve(statement);
@@ -37,9 +102,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        // A block that declares nothing runs in the enclosing scope, and keeps a frame size of zero.
+        if (!declaresVariables(stmt.statements)) {
+            resolve(stmt.statements);
+            return null;
+        }
+
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        stmt.frameSize = endScope();
         return null;
     }
 
@@ -48,7 +119,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
         define(stmt.name);
 
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
@@ -62,12 +133,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            stmt.superclassSlot = declareSynthetic("super");
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method :  stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -77,10 +145,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        endScope();
-
         if (stmt.superclass != null) {
-            endScope();
+            stmt.frameSize = endScope();
         }
 
         currentClass = enclosingClass;
@@ -93,9 +159,25 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // Only a loop variable needs a scope of its own. It is one variable for the
+        // whole loop, so the scope is entered once rather than on every iteration.
+        boolean hasScope = stmt.initializer instanceof Stmt.Var;
+        if (hasScope) beginScope();
+
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        if (stmt.condition != null) resolve(stmt.condition);
+        resolve(stmt.body);
+        if (stmt.increment != null) resolve(stmt.increment);
+
+        if (hasScope) stmt.frameSize = endScope();
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -127,6 +209,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 Lox.error(stmt.keyword, "Can't return a value from an initializer.");
             }
 
+            // Nothing is left to do in the function after a call it returns the result of.
+            stmt.isTailCall = currentFunction != FunctionType.NONE && stmt.value instanceof Expr.Call;
+
             resolve(stmt.value);
         }
 
@@ -135,7 +220,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -153,14 +238,48 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        Local local = resolveLocal(expr.name.lexeme);
+        if (local != null) {
+            expr.slot = local.slot;
+            expr.upvalue = upvalue(currentFrame, local);
+            local.assigned = true;
+            local.uses.add(expr);
+        } else {
+            expr.global = globals.slot(expr.name.lexeme);
+        }
         return null;
     }
 
+    /**
+     * Marks a binary expression that can only evaluate to a number, and a comparison
+     * with an operand that can only be a number, which the Interpreter evaluates
+     * without boxing. The Optimizer marks the nodes it makes again, as their operands
+     * may have changed.
+     */
+    static void markNumeric(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            case MINUS:
+            case STAR:
+            case SLASH:
+                expr.isNumeric = true;
+                break;
+            case PLUS:
+                expr.isNumeric = isNumeric(expr.left) && isNumeric(expr.right);
+                break;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                expr.isNumericComparison = isNumeric(expr.left) || isNumeric(expr.right);
+                break;
+        }
+    }
+
     @Override
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+        markNumeric(expr);
         return null;
     }
 
@@ -187,8 +306,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // Inlined calls are made by the Optimizer after resolution, so only the call is left to resolve.
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        resolve(expr.call);
+        return null;
+    }
+
+    // Made by the Optimizer after resolution too.
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
+        expr.runtimeValue = Numbers.fromLiteral(expr.value);
         return null;
     }
 
@@ -207,8 +341,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     // We resolve the super token exactly as if it were a variable.
-    // The resolution stores the number of hops along the environment chain
-    // that the interpreter needs to walk to find the environment where the superclass is stored.
+    // The scope holding the superclass is outside the method, so the method always
+    // captures it, and the receiver as well when super is used in a nested function.
+    // Otherwise the receiver is in slot 0 of the method's frame.
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
@@ -217,7 +352,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        Local local = resolveLocal("super");
+        if (local != null) {
+            expr.upvalue = upvalue(currentFrame, local);
+            expr.receiverUpvalue = upvalue(currentFrame, resolveLocal("this"));
+        }
         return null;
     }
 
@@ -228,23 +367,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             return null;
         }
 
-        resolveLocal(expr, expr.keyword);
+        Local local = resolveLocal("this");
+        expr.slot = local.slot;
+        expr.upvalue = upvalue(currentFrame, local);
         return null;
     }
 
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
+        expr.isNumeric = expr.operator.type == TokenType.MINUS;
         return null;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        if (!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme)
+                && !scopes.peek().get(expr.name.lexeme).defined) {
             Lox.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        Local local = resolveLocal(expr.name.lexeme);
+        if (local != null) {
+            expr.slot = local.slot;
+            expr.upvalue = upvalue(currentFrame, local);
+            local.uses.add(expr);
+        } else {
+            expr.global = globals.slot(expr.name.lexeme);
+        }
         return null;
     }
 
@@ -256,13 +406,36 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
+        Frame frame = new Frame(currentFrame, scopes.size());
+        currentFrame = frame;
         beginScope();
+
+        // A method gets its receiver as the first local of its own frame,
+        // so it can be called on an instance without binding it first.
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            declareSynthetic("this");
+        }
+
         for (Token param : function.params) {
-            declare(param);
+            declare(param, null);
             define(param);
         }
         resolve(function.body);
-        endScope();
+
+        // The arguments are passed in the frame as they are, parameters kept in a Cell
+        // are moved into one when the function starts running.
+        List<Integer> cellParameters = new ArrayList<>();
+        for (Token param : function.params) {
+            Local local = scopes.peek().get(param.lexeme);
+            if (local.inCell()) cellParameters.add(local.slot);
+        }
+        function.cellParameters = new int[cellParameters.size()];
+        for (int i = 0; i < cellParameters.size(); i++) {
+            function.cellParameters[i] = cellParameters.get(i);
+        }
+
+        function.captures = frame.captures.toArray(new Capture[0]);
+        function.frameSize = endScope();
         currentFunction = enclosingFunction;
     }
 
@@ -270,39 +443,119 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expr.accept(this);
     }
 
+    private static boolean declaresVariables(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function
+                    || statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        // The locals of a statement at the top level of the script can't go in the
+        // frame of a function, so the statement gets a frame of its own.
+        if (currentFrame == null) currentFrame = new Frame(null, scopes.size());
+        scopes.push(new HashMap<String, Local>());
     }
 
-    private void endScope() {
-        scopes.pop();
+    // Returns the size of the frame if the scope was the outermost one of its frame, 0 otherwise.
+    private int endScope() {
+        Map<String, Local> scope = scopes.pop();
+        for (Local local : scope.values()) {
+            if (local.inCell()) moveToCell(local);
+        }
+        currentFrame.size -= scope.size();
+
+        if (scopes.size() > currentFrame.scope) return 0;
+
+        Frame frame = currentFrame;
+        currentFrame = frame.enclosing;
+        return frame.maxSize;
     }
 
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
+    private static void moveToCell(Local local) {
+        for (Expr use : local.uses) {
+            if (use instanceof Expr.Variable) {
+                ((Expr.Variable) use).inCell = true;
+            } else {
+                ((Expr.Assign) use).inCell = true;
+            }
+        }
+
+        if (local.declaration instanceof Stmt.Var) {
+            ((Stmt.Var) local.declaration).inCell = true;
+        } else if (local.declaration instanceof Stmt.Function) {
+            ((Stmt.Function) local.declaration).inCell = true;
+        } else if (local.declaration instanceof Stmt.Class) {
+            ((Stmt.Class) local.declaration).inCell = true;
+        }
+    }
+
+    private int declare(Token name, Stmt declaration) {
+        if (scopes.isEmpty()) return -1;
 
-        Map<String, Boolean> scope = scopes.peek();
+        Map<String, Local> scope = scopes.peek();
         if (scope.containsKey(name.lexeme)) {
             Lox.error(name, "Already a variable with this name in this scope.");
         }
 
-        // We mark it as “not ready yet” by binding its name to false in the scope map.
-        // The value associated with a key in the scope map represents whether or not
+        // We mark it as “not ready yet” by leaving its Local undefined.
+        // The defined flag of a Local represents whether or not
         // we have finished resolving that variable’s initializer.
-        scope.put(name.lexeme, false);
+        Local local = new Local(scopes.size() - 1, allocateSlot(), declaration);
+        scope.put(name.lexeme, local);
+        return local.slot;
+    }
+
+    private int declareSynthetic(String name) {
+        Local local = new Local(scopes.size() - 1, allocateSlot(), null);
+        local.defined = true;
+        scopes.peek().put(name, local);
+        return local.slot;
+    }
+
+    private int allocateSlot() {
+        int slot = currentFrame.size++;
+        currentFrame.maxSize = Math.max(currentFrame.maxSize, currentFrame.size);
+        return slot;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme).defined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    // Returns null if the variable isn't declared in any local scope,
+    // in which case it is assumed to be a global.
+    private Local resolveLocal(String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
+            Local local = scopes.get(i).get(name);
+            if (local != null) return local;
         }
+
+        return null;
+    }
+
+    // The index of the upvalue through which function reaches a local of an enclosing
+    // function, or -1 if the local is its own. Every function in between captures it too.
+    private static int upvalue(Frame function, Local local) {
+        if (function == null || local.scope >= function.scope) return -1;
+
+        Integer index = function.upvalues.get(local);
+        if (index != null) return index;
+
+        int enclosing = upvalue(function.enclosing, local);
+        if (enclosing == -1) {
+            function.captures.add(new Capture(true, local.slot));
+        } else {
+            function.captures.add(new Capture(false, enclosing));
+        }
+
+        local.captured = true;
+        index = function.captures.size() - 1;
+        function.upvalues.put(local, index);
+        return index;
     }
 }
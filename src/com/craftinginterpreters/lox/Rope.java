@@ -0,0 +1,92 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A Lox string made by concatenation, which doesn't copy its two halves.
+ * A Lox string is either a Java String or a Rope. Building a string up in a loop,
+ * as in s = s + x, only adds a node each time instead of copying everything so far,
+ * and the characters are copied once, when the string is flattened because it is
+ * printed or compared. To Lox code a Rope is indistinguishable from the String it
+ * stands for, see Interpreter.isEqual() and Interpreter.stringify().
+ */
+final class Rope implements CharSequence {
+    // Shorter results are plain Strings. Copying those is cheaper than a node.
+    private static final int MIN_LENGTH = 64;
+
+    private final int length;
+    // The halves, each a String or a Rope, until the rope is flattened.
+    private CharSequence left;
+    private CharSequence right;
+    private String flat;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    // Both operands must be Lox strings.
+    static CharSequence concatenate(Object left, Object right) {
+        CharSequence a = (CharSequence) left;
+        CharSequence b = (CharSequence) right;
+        if (a.length() == 0) return b;
+        if (b.length() == 0) return a;
+
+        if (a.length() + b.length() < MIN_LENGTH) return a.toString() + b.toString();
+        return new Rope(a, b);
+    }
+
+    static boolean equal(CharSequence left, CharSequence right) {
+        if (left.length() != right.length()) return false;
+        return left.toString().equals(right.toString());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flatten();
+        return flat;
+    }
+
+    // Walks the tree with an explicit stack, since a string built in a loop makes a very deep one.
+    private void flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+
+        while (!pending.isEmpty()) {
+            CharSequence next = pending.pop();
+            if (next instanceof Rope && ((Rope) next).flat == null) {
+                Rope rope = (Rope) next;
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                builder.append(next.toString());
+            }
+        }
+
+        flat = builder.toString();
+        left = null;
+        right = null;
+    }
+}
@@ -0,0 +1,52 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The layout of a LoxInstance's fields, also known as a hidden class.
+ * Instances don't store their fields by name; they point to a shape that maps each
+ * field name to a slot in the instance's field array.
+ * Adding a field moves an instance to the next shape along a transition, and since
+ * transitions are shared, every instance of a class that gets the same fields in the
+ * same order (typically in init()) ends up with the very same shape.
+ */
+class Shape {
+    final LoxClass klass;
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    // The empty shape every instance of klass starts out with.
+    Shape(LoxClass klass) {
+        this(klass, new HashMap<>());
+    }
+
+    private Shape(LoxClass klass, Map<String, Integer> slots) {
+        this.klass = klass;
+        this.slots = slots;
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    // Returns -1 if instances of this shape have no field with that name.
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) return -1;
+        return slot;
+    }
+
+    // The shape an instance of this shape gets when name is added as its next field.
+    Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(klass, nextSlots);
+            transitions.put(name, next);
+        }
+
+        return next;
+    }
+}
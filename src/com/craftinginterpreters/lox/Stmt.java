@@ -8,6 +8,7 @@ abstract class Stmt {
         R visitBlockStmt(Block stmt);
         R visitClassStmt(Class stmt);
         R visitExpressionStmt(Expression stmt);
+        R visitForStmt(For stmt);
         R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
         R visitPrintStmt(Print stmt);
@@ -17,6 +18,7 @@ abstract class Stmt {
     }
     static class Block extends Stmt {
         final List<Stmt> statements;
+        int frameSize;
         Block(List<Stmt> statements) {
             this.statements = statements;
         }
@@ -30,6 +32,10 @@ abstract class Stmt {
         final Token name;
         final Expr.Variable superclass;
         final List<Stmt.Function> methods;
+        int slot = -1;
+        boolean inCell;
+        int superclassSlot;
+        int frameSize;
         Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
             this.name = name;
             this.superclass = superclass;
@@ -52,10 +58,37 @@ abstract class Stmt {
             return visitor.visitExpressionStmt(this);
         }
     }
+    static class For extends Stmt {
+        final Stmt initializer;
+        final Expr condition;
+        final Expr increment;
+        final Stmt body;
+        int frameSize;
+        int[] invariants = new int[0];
+        For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitForStmt(this);
+        }
+    }
     static class Function extends Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        int slot = -1;
+        boolean inCell;
+        int frameSize;
+        int[] cellParameters;
+        Capture[] captures;
+        int hotness;
+        JitCode compiled;
+        boolean isOptimized;
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
             this.params = params;
@@ -83,8 +116,10 @@ abstract class Stmt {
         }
     }
     static class Print extends Stmt {
+        final Token keyword;
         final Expr expression;
-        Print(Expr expression) {
+        Print(Token keyword, Expr expression) {
+            this.keyword = keyword;
             this.expression = expression;
         }
 
@@ -96,6 +131,7 @@ abstract class Stmt {
     static class Return extends Stmt {
         final Token keyword;
         final Expr value;
+        boolean isTailCall;
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
             this.value = value;
@@ -109,6 +145,8 @@ abstract class Stmt {
     static class Var extends Stmt {
         final Token name;
         final Expr initializer;
+        int slot = -1;
+        boolean inCell;
         Var(Token name, Expr initializer) {
             this.name = name;
             this.initializer = initializer;
@@ -122,6 +160,7 @@ abstract class Stmt {
     static class While extends Stmt {
         final Expr condition;
         final Stmt body;
+        int[] invariants = new int[0];
         While(Expr condition, Stmt body) {
             this.condition = condition;
             this.body = body;
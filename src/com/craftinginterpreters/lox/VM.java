@@ -0,0 +1,572 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+/**
+ * Runs the bytecode the Compiler produces on a value stack, the way clox does.
+ * Each call gets a CallFrame whose slots start at the callee on the stack,
+ * so the arguments the caller pushed become the callee's first locals without copying.
+ * It reports the same runtime errors the Interpreter does, with the line of the failing instruction.
+ */
+class VM {
+    // Deep enough for any sensible recursion, small enough to stop a runaway one.
+    private static final int FRAMES_MAX = 1 << 20;
+
+    private static class CallFrame {
+        ObjClosure closure;
+        int ip;
+        // The stack index of the frame's slot zero.
+        int slots;
+    }
+
+    private Object[] stack = new Object[256];
+    private int stackTop = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private final Map<String, Object> globals = new HashMap<>();
+    private ObjUpvalue openUpvalues = null;
+
+    VM() {
+        defineNative("clock", 0, (argCount, args, first) -> (double) System.currentTimeMillis() / 1000.0);
+    }
+
+    void interpret(List<Stmt> statements) {
+        ObjFunction function = new Compiler().compile(statements);
+        if (Lox.hadError) return;
+
+        ObjClosure closure = new ObjClosure(function);
+        push(closure);
+        try {
+            call(closure, 0);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            resetStack();
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int slots = frame.slots;
+        Object[] stack = this.stack;
+
+        while (true) {
+            switch (code[ip++]) {
+                case OP_CONSTANT:
+                    stack[stackTop++] = constants[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OP_NIL: stack[stackTop++] = null; break;
+                case OP_TRUE: stack[stackTop++] = true; break;
+                case OP_FALSE: stack[stackTop++] = false; break;
+                case OP_POP: stack[--stackTop] = null; break;
+                case OP_GET_LOCAL:
+                    stack[stackTop++] = stack[slots + readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OP_SET_LOCAL:
+                    stack[slots + readShort(code, ip)] = stack[stackTop - 1];
+                    ip += 2;
+                    break;
+                case OP_GET_GLOBAL: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        frame.ip = ip;
+                        throw runtimeError("Undefined varaible '" + name + "'.");
+                    }
+                    stack[stackTop++] = value;
+                    break;
+                }
+                case OP_DEFINE_GLOBAL: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    globals.put(name, stack[--stackTop]);
+                    stack[stackTop] = null;
+                    break;
+                }
+                case OP_SET_GLOBAL: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    if (!globals.containsKey(name)) {
+                        frame.ip = ip;
+                        throw runtimeError("Undefined variable '" + name + "'.");
+                    }
+                    globals.put(name, stack[stackTop - 1]);
+                    break;
+                }
+                case OP_GET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+                    ip += 2;
+                    stack[stackTop++] = upvalue.isClosed ? upvalue.closed : stack[upvalue.slot];
+                    break;
+                }
+                case OP_SET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[readShort(code, ip)];
+                    ip += 2;
+                    if (upvalue.isClosed) {
+                        upvalue.closed = stack[stackTop - 1];
+                    } else {
+                        stack[upvalue.slot] = stack[stackTop - 1];
+                    }
+                    break;
+                }
+                case OP_GET_PROPERTY: {
+                    frame.ip = ip + 2;
+                    if (!(stack[stackTop - 1] instanceof ObjInstance)) {
+                        throw runtimeError("Only instances have properties.");
+                    }
+
+                    ObjInstance instance = (ObjInstance) stack[stackTop - 1];
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+
+                    // Fields shadow methods.
+                    Object value = instance.fields.get(name);
+                    if (value != null || instance.fields.containsKey(name)) {
+                        stack[stackTop - 1] = value;
+                        break;
+                    }
+
+                    stack[stackTop - 1] = bindMethod(instance, instance.klass, name, "Undefine property '");
+                    break;
+                }
+                case OP_SET_PROPERTY: {
+                    frame.ip = ip + 2;
+                    if (!(stack[stackTop - 2] instanceof ObjInstance)) {
+                        throw runtimeError("Only instances have fields.");
+                    }
+
+                    ObjInstance instance = (ObjInstance) stack[stackTop - 2];
+                    Object value = stack[--stackTop];
+                    stack[stackTop] = null;
+                    instance.fields.put((String) constants[readShort(code, ip)], value);
+                    ip += 2;
+                    stack[stackTop - 1] = value;
+                    break;
+                }
+                case OP_GET_SUPER: {
+                    frame.ip = ip + 2;
+                    ObjClass superclass = (ObjClass) stack[--stackTop];
+                    stack[stackTop] = null;
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    stack[stackTop - 1] = bindMethod(stack[stackTop - 1], superclass, name, "Undefined property '");
+                    break;
+                }
+                case OP_EQUAL: {
+                    Object b = stack[--stackTop];
+                    stack[stackTop] = null;
+                    stack[stackTop - 1] = Interpreter.isEqual(stack[stackTop - 1], b);
+                    break;
+                }
+                case OP_GREATER: {
+                    Object b = stack[stackTop - 1];
+                    Object a = stack[stackTop - 2];
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        frame.ip = ip;
+                        throw runtimeError("Operands must be numbers.");
+                    }
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = (double) a > (double) b;
+                    break;
+                }
+                case OP_GREATER_EQUAL: {
+                    Object b = stack[stackTop - 1];
+                    Object a = stack[stackTop - 2];
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        frame.ip = ip;
+                        throw runtimeError("Operands must be numbers.");
+                    }
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = (double) a >= (double) b;
+                    break;
+                }
+                case OP_LESS: {
+                    Object b = stack[stackTop - 1];
+                    Object a = stack[stackTop - 2];
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        frame.ip = ip;
+                        throw runtimeError("Operands must be numbers.");
+                    }
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = (double) a < (double) b;
+                    break;
+                }
+                case OP_LESS_EQUAL: {
+                    Object b = stack[stackTop - 1];
+                    Object a = stack[stackTop - 2];
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        frame.ip = ip;
+                        throw runtimeError("Operands must be numbers.");
+                    }
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = (double) a <= (double) b;
+                    break;
+                }
+                case OP_ADD: {
+                    Object b = stack[stackTop - 1];
+                    Object a = stack[stackTop - 2];
+                    if (a instanceof Double && b instanceof Double) {
+                        stack[stackTop - 2] = (double) a + (double) b;
+                    } else if (Rope.isString(a) && Rope.isString(b)) {
+                        stack[stackTop - 2] = Rope.concatenate(a, b);
+                    } else {
+                        frame.ip = ip;
+                        throw runtimeError("Operands must be two numbers or two strings.");
+                    }
+                    stack[--stackTop] = null;
+                    break;
+                }
+                case OP_SUBTRACT: {
+                    Object b = stack[stackTop - 1];
+                    Object a = stack[stackTop - 2];
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        frame.ip = ip;
+                        throw runtimeError("Operands must be numbers.");
+                    }
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = (double) a - (double) b;
+                    break;
+                }
+                case OP_MULTIPLY: {
+                    Object b = stack[stackTop - 1];
+                    Object a = stack[stackTop - 2];
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        frame.ip = ip;
+                        throw runtimeError("Operands must be numbers.");
+                    }
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = (double) a * (double) b;
+                    break;
+                }
+                case OP_DIVIDE: {
+                    Object b = stack[stackTop - 1];
+                    Object a = stack[stackTop - 2];
+                    if (!(a instanceof Double) || !(b instanceof Double)) {
+                        frame.ip = ip;
+                        throw runtimeError("Operands must be numbers.");
+                    }
+                    stack[--stackTop] = null;
+                    stack[stackTop - 1] = (double) a / (double) b;
+                    break;
+                }
+                case OP_NOT:
+                    stack[stackTop - 1] = !Interpreter.isTruthy(stack[stackTop - 1]);
+                    break;
+                case OP_NEGATE:
+                    if (!(stack[stackTop - 1] instanceof Double)) {
+                        frame.ip = ip;
+                        throw runtimeError("Operand must be a number.");
+                    }
+                    stack[stackTop - 1] = -(double) stack[stackTop - 1];
+                    break;
+                case OP_PRINT:
+                    System.out.println(Interpreter.stringify(stack[--stackTop]));
+                    stack[stackTop] = null;
+                    break;
+                case OP_JUMP: {
+                    int offset = readShort(code, ip);
+                    ip += 2 + offset;
+                    break;
+                }
+                case OP_JUMP_IF_FALSE: {
+                    int offset = readShort(code, ip);
+                    ip += 2;
+                    if (!Interpreter.isTruthy(stack[stackTop - 1])) ip += offset;
+                    break;
+                }
+                case OP_LOOP: {
+                    int offset = readShort(code, ip);
+                    ip += 2 - offset;
+                    break;
+                }
+                case OP_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    callValue(stack[stackTop - 1 - argCount], argCount);
+
+                    // The callee's frame, if it got one, runs next.
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    slots = frame.slots;
+                    stack = this.stack;
+                    break;
+                }
+                case OP_INVOKE: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    invoke(name, argCount);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    slots = frame.slots;
+                    stack = this.stack;
+                    break;
+                }
+                case OP_SUPER_INVOKE: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    ObjClass superclass = (ObjClass) stack[--stackTop];
+                    stack[stackTop] = null;
+                    ObjClosure method = superclass.methods.get(name);
+                    if (method == null) {
+                        throw runtimeError("Undefined property '" + name + "'.");
+                    }
+                    call(method, argCount);
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    slots = frame.slots;
+                    stack = this.stack;
+                    break;
+                }
+                case OP_CLOSURE: {
+                    ObjFunction function = (ObjFunction) constants[readShort(code, ip)];
+                    ip += 2;
+                    ObjClosure closure = new ObjClosure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = readShort(code, ip);
+                        ip += 2;
+                        if (isLocal) {
+                            closure.upvalues[i] = captureUpvalue(slots + index);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                    stack[stackTop++] = closure;
+                    break;
+                }
+                case OP_CLOSE_UPVALUE:
+                    closeUpvalues(stackTop - 1);
+                    stack[--stackTop] = null;
+                    break;
+                case OP_RETURN: {
+                    Object result = stack[stackTop - 1];
+                    closeUpvalues(slots);
+                    frameCount--;
+
+                    // Discard the frame's window of the stack, the callee included.
+                    Arrays.fill(stack, slots, stackTop, null);
+                    stackTop = slots;
+                    if (frameCount == 0) return;
+
+                    stack[stackTop++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    slots = frame.slots;
+                    break;
+                }
+                case OP_CLASS:
+                    stack[stackTop++] = new ObjClass((String) constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OP_INHERIT: {
+                    if (!(stack[stackTop - 2] instanceof ObjClass)) {
+                        frame.ip = ip;
+                        throw runtimeError("Superclass must be a class.");
+                    }
+
+                    // Copy-down inheritance: the methods never change after the class is declared.
+                    ObjClass superclass = (ObjClass) stack[stackTop - 2];
+                    ObjClass subclass = (ObjClass) stack[stackTop - 1];
+                    subclass.methods.putAll(superclass.methods);
+                    subclass.initializer = superclass.initializer;
+                    stack[--stackTop] = null;
+                    break;
+                }
+                case OP_METHOD: {
+                    String name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    ObjClosure method = (ObjClosure) stack[stackTop - 1];
+                    ObjClass klass = (ObjClass) stack[stackTop - 2];
+                    klass.methods.put(name, method);
+                    if (name.equals("init")) klass.initializer = method;
+                    stack[--stackTop] = null;
+                    break;
+                }
+            }
+        }
+    }
+
+    // The two-byte operand at offset, high byte first.
+    private static int readShort(byte[] code, int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof ObjClosure) {
+            call((ObjClosure) callee, argCount);
+            return;
+        }
+
+        if (callee instanceof ObjBoundMethod) {
+            ObjBoundMethod bound = (ObjBoundMethod) callee;
+            stack[stackTop - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+            return;
+        }
+
+        if (callee instanceof ObjClass) {
+            ObjClass klass = (ObjClass) callee;
+            stack[stackTop - argCount - 1] = new ObjInstance(klass);
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount);
+            } else if (argCount != 0) {
+                throw runtimeError("Expected 0 arguemnts but got " + argCount + ".");
+            }
+            return;
+        }
+
+        if (callee instanceof ObjNative) {
+            ObjNative function = (ObjNative) callee;
+            if (argCount != function.arity) {
+                throw runtimeError("Expected " + function.arity + " arguemnts but got " + argCount + ".");
+            }
+
+            Object result = function.function.call(argCount, stack, stackTop - argCount);
+            Arrays.fill(stack, stackTop - argCount - 1, stackTop, null);
+            stackTop -= argCount + 1;
+            stack[stackTop++] = result;
+            return;
+        }
+
+        throw runtimeError("Can only call functions and classes.");
+    }
+
+    // Calls the method straight from the class, without creating a bound method for it first.
+    private void invoke(String name, int argCount) {
+        Object receiver = stack[stackTop - argCount - 1];
+        if (!(receiver instanceof ObjInstance)) {
+            throw runtimeError("Only instances have properties.");
+        }
+
+        ObjInstance instance = (ObjInstance) receiver;
+        Object value = instance.fields.get(name);
+        if (value != null || instance.fields.containsKey(name)) {
+            stack[stackTop - argCount - 1] = value;
+            callValue(value, argCount);
+            return;
+        }
+
+        ObjClosure method = instance.klass.methods.get(name);
+        if (method == null) {
+            throw runtimeError("Undefine property '" + name + "'.");
+        }
+        call(method, argCount);
+    }
+
+    private void call(ObjClosure closure, int argCount) {
+        ObjFunction function = closure.function;
+        if (argCount != function.arity) {
+            throw runtimeError("Expected " + function.arity + " arguemnts but got " + argCount + ".");
+        }
+
+        if (frameCount == FRAMES_MAX) {
+            throw runtimeError("Stack overflow.");
+        }
+
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+
+        int slots = stackTop - argCount - 1;
+        if (slots + function.maxStack > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, slots + function.maxStack));
+        }
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.slots = slots;
+        frameCount++;
+    }
+
+    private ObjBoundMethod bindMethod(Object receiver, ObjClass klass, String name, String error) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw runtimeError(error + name + "'.");
+        }
+
+        return new ObjBoundMethod(receiver, method);
+    }
+
+    // Reuses the open upvalue for the slot if there is one, so closures share the variable.
+    private ObjUpvalue captureUpvalue(int slot) {
+        ObjUpvalue prevUpvalue = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            prevUpvalue = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        ObjUpvalue createdUpvalue = new ObjUpvalue(slot, upvalue);
+        if (prevUpvalue == null) {
+            openUpvalues = createdUpvalue;
+        } else {
+            prevUpvalue.next = createdUpvalue;
+        }
+
+        return createdUpvalue;
+    }
+
+    // Closes every open upvalue that points to the given slot or above it.
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            ObjUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.isClosed = true;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void push(Object value) {
+        stack[stackTop++] = value;
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, null);
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void defineNative(String name, int arity, ObjNative.NativeFn function) {
+        globals.put(name, new ObjNative(arity, function));
+    }
+
+    // The failing instruction is the one before the current frame's ip.
+    private RuntimeError runtimeError(String message) {
+        CallFrame frame = frames[frameCount - 1];
+        int line = frame.closure.function.chunk.lines[frame.ip - 1];
+        return new RuntimeError(line, message);
+    }
+}
@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * The locals of the running functions, one frame after another in an array the
+ * Interpreter allocates once and every call reuses, so a call doesn't allocate
+ * anything for them. A frame starts at base and holds the slots the Resolver gave
+ * the function's locals. What a closure captures is copied out of the frame into
+ * its upvalues, so no frame has to outlive its call.
+ */
+final class ValueStack {
+    private static final int INITIAL_SIZE = 256;
+    // What the slot of an Expr.Invariant holds until the loop first evaluates it.
+    static final Object UNSET = new Object();
+
+    // Grows as calls nest, so read it afresh after anything that may make a call.
+    Object[] slots = new Object[INITIAL_SIZE];
+    // The first slot of the running function's frame.
+    int base = 0;
+    // The first slot after it, where the frame of the next call goes.
+    int top = 0;
+    // The upvalues of the running function.
+    Object[] upvalues = null;
+
+    Object get(int slot) {
+        return slots[base + slot];
+    }
+
+    void set(int slot, Object value) {
+        slots[base + slot] = value;
+    }
+
+    // Reserves a frame above the running one and returns where it starts.
+    int push(int size) {
+        int frame = top;
+        top += size;
+        if (top > slots.length) slots = Arrays.copyOf(slots, Math.max(top, slots.length * 2));
+        return frame;
+    }
+
+    // Drops the frames from frame on, clearing them so they don't keep their values alive.
+    void pop(int frame) {
+        for (int i = frame; i < top; i++) {
+            slots[i] = null;
+        }
+        top = frame;
+    }
+
+    // Called as a loop starts, so that its invariant expressions are evaluated afresh.
+    void unset(int[] invariants) {
+        for (int slot : invariants) {
+            slots[base + slot] = UNSET;
+        }
+    }
+
+    // Runs a statement at the top level of the script in a frame of its own, see
+    // Resolver.beginScope(). Returns the base to leave() back to afterwards.
+    int enter(int size) {
+        int caller = base;
+        base = push(size);
+        return caller;
+    }
+
+    void leave(int caller) {
+        pop(base);
+        base = caller;
+    }
+}
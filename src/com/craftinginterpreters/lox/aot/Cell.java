@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox.aot;
+
+// A local variable that a closure captures. Both the declaring function and the
+// closure hold on to the same cell, so they see each other's assignments.
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
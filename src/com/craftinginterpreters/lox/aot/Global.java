@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox.aot;
+
+// A global variable. Globals are late bound, so it exists from the start
+// but reading or assigning it is an error until it has been defined.
+final class Global {
+    private static final Object UNDEFINED = new Object();
+
+    private final String name;
+    private Object value = UNDEFINED;
+
+    Global(String name) {
+        this.name = name;
+    }
+
+    void define(Object value) {
+        this.value = value;
+    }
+
+    Object get(int line) {
+        if (value == UNDEFINED) {
+            throw new LoxError(line, "Undefined varaible '" + name + "'.");
+        }
+
+        return value;
+    }
+
+    Object set(Object value, int line) {
+        if (this.value == UNDEFINED) {
+            throw new LoxError(line, "Undefined variable '" + name + "'.");
+        }
+
+        this.value = value;
+        return value;
+    }
+}
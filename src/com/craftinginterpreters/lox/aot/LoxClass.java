@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox.aot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class LoxClass {
+    final String name;
+
+    // The inherited methods are copied down, so a lookup never walks the superclass chain.
+    private final Map<String, LoxFunction> methods = new HashMap<>();
+    final LoxFunction initializer;
+
+    LoxClass(String name, LoxClass superclass, LoxFunction[] methods) {
+        this.name = name;
+        if (superclass != null) {
+            this.methods.putAll(superclass.methods);
+        }
+        for (LoxFunction method : methods) {
+            this.methods.put(method.name, method);
+        }
+        this.initializer = this.methods.get("init");
+    }
+
+    LoxFunction findMethod(String name) {
+        return methods.get(name);
+    }
+
+    int arity() {
+        if (initializer == null) return 0;
+        return initializer.arity;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
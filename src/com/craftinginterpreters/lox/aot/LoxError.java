@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox.aot;
+
+// A Lox runtime error, reported with the line of the code that caused it.
+final class LoxError extends RuntimeException {
+    final int line;
+
+    LoxError(int line, String message) {
+        super(message);
+        this.line = line;
+    }
+}
@@ -0,0 +1,45 @@
+package com.craftinginterpreters.lox.aot;
+
+final class LoxFunction {
+    // The compiled body. For a method, self is "this", plain functions ignore it.
+    interface Body {
+        Object call(LoxInstance self, Object[] arguments);
+    }
+
+    final String name;
+    final int arity;
+    private final boolean isInitializer;
+    private final Body body;
+
+    // The instance a method was bound to when it was accessed as a value.
+    final LoxInstance receiver;
+
+    LoxFunction(String name, int arity, boolean isInitializer, Body body) {
+        this(name, arity, isInitializer, body, null);
+    }
+
+    private LoxFunction(String name, int arity, boolean isInitializer, Body body, LoxInstance receiver) {
+        this.name = name;
+        this.arity = arity;
+        this.isInitializer = isInitializer;
+        this.body = body;
+        this.receiver = receiver;
+    }
+
+    LoxFunction bind(LoxInstance instance) {
+        return new LoxFunction(name, arity, isInitializer, body, instance);
+    }
+
+    Object call(LoxInstance self, Object[] arguments) {
+        Object value = body.call(self, arguments);
+
+        // An initializer always returns the instance.
+        if (isInitializer) return self;
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,33 @@
+package com.craftinginterpreters.lox.aot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class LoxInstance {
+    final LoxClass klass;
+    private final Map<String, Object> fields = new HashMap<>();
+
+    LoxInstance(LoxClass klass) {
+        this.klass = klass;
+    }
+
+    // Fields shadow methods.
+    Object get(String name, int line) {
+        Object value = fields.get(name);
+        if (value != null || fields.containsKey(name)) return value;
+
+        LoxFunction method = klass.findMethod(name);
+        if (method != null) return method.bind(this);
+
+        throw new LoxError(line, "Undefine property '" + name + "'.");
+    }
+
+    void set(String name, Object value) {
+        fields.put(name, value);
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
@@ -0,0 +1,8 @@
+package com.craftinginterpreters.lox.aot;
+
+// A function of the runtime that Lox code can call, like clock(). It prints as "<native fn>".
+interface LoxNative {
+    int arity();
+
+    Object call(Object[] arguments);
+}
@@ -0,0 +1,245 @@
+package com.craftinginterpreters.lox.aot;
+
+/**
+ * The operations a program compiled by LoxAot calls into.
+ * They behave like the Interpreter's visit methods for the same nodes,
+ * down to the runtime error messages.
+ */
+final class LoxRuntime {
+    static final Object[] NO_ARGUMENTS = new Object[0];
+
+    // There are no tail calls, so deep recursion needs a deep stack.
+    private static final long STACK_SIZE = 256L * 1024 * 1024;
+
+    private LoxRuntime() {}
+
+    private static final class Clock implements LoxNative {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public Object call(Object[] arguments) {
+            return (double) System.currentTimeMillis() / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    // Runs the program the way Lox.runFile() does, including its exit code on a runtime error.
+    static void start(Runnable program) {
+        final LoxError[] failure = new LoxError[1];
+        Runnable guarded = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    program.run();
+                } catch (LoxError error) {
+                    failure[0] = error;
+                }
+            }
+        };
+
+        Thread thread = new Thread(null, guarded, "lox", STACK_SIZE);
+
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure[0] != null) {
+            System.err.println(failure[0].getMessage() + "\n[line " + failure[0].line + "]");
+            System.exit(70);
+        }
+    }
+
+    static Global global(String name) {
+        Global global = new Global(name);
+        if (name.equals("clock")) global.define(new Clock());
+        return global;
+    }
+
+    // Lox follows Ruby’s simple rule: false and nil are falsey, and everything else is truthy.
+    static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    static boolean isEqual(Object left, Object right) {
+        if (left == null && right == null) return true;
+        if (left == null) return false;
+        return left.equals(right);
+    }
+
+    static String stringify(Object object) {
+        if (object == null) return "nil";
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        return object.toString();
+    }
+
+    static void print(Object value) {
+        System.out.println(stringify(value));
+    }
+
+    // An expression statement, whose value is thrown away.
+    static void discard(Object value) {
+    }
+
+    static Object add(Object left, Object right, int line) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+
+        if (left instanceof String && right instanceof String) {
+            return (String) left + (String) right;
+        }
+
+        throw new LoxError(line, "Operands must be two numbers or two strings.");
+    }
+
+    static Object subtract(Object left, Object right, int line) {
+        checkNumberOperands(line, left, right);
+        return (double) left - (double) right;
+    }
+
+    static Object multiply(Object left, Object right, int line) {
+        checkNumberOperands(line, left, right);
+        return (double) left * (double) right;
+    }
+
+    static Object divide(Object left, Object right, int line) {
+        checkNumberOperands(line, left, right);
+        return (double) left / (double) right;
+    }
+
+    static Object greater(Object left, Object right, int line) {
+        checkNumberOperands(line, left, right);
+        return (double) left > (double) right;
+    }
+
+    static Object greaterEqual(Object left, Object right, int line) {
+        checkNumberOperands(line, left, right);
+        return (double) left >= (double) right;
+    }
+
+    static Object less(Object left, Object right, int line) {
+        checkNumberOperands(line, left, right);
+        return (double) left < (double) right;
+    }
+
+    static Object lessEqual(Object left, Object right, int line) {
+        checkNumberOperands(line, left, right);
+        return (double) left <= (double) right;
+    }
+
+    static Object equal(Object left, Object right) {
+        return isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !isEqual(left, right);
+    }
+
+    static Object negate(Object right, int line) {
+        if (!(right instanceof Double)) {
+            throw new LoxError(line, "Operand must be a number.");
+        }
+        return -(double) right;
+    }
+
+    static Object not(Object right) {
+        return !isTruthy(right);
+    }
+
+    static Object call(Object callee, Object[] arguments, int line) {
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            checkArity(function.arity, arguments, line);
+            return function.call(function.receiver, arguments);
+        }
+
+        if (callee instanceof LoxClass) {
+            LoxClass klass = (LoxClass) callee;
+            checkArity(klass.arity(), arguments, line);
+            LoxInstance instance = new LoxInstance(klass);
+            if (klass.initializer != null) {
+                klass.initializer.call(instance, arguments);
+            }
+            return instance;
+        }
+
+        if (callee instanceof LoxNative) {
+            LoxNative function = (LoxNative) callee;
+            checkArity(function.arity(), arguments, line);
+            return function.call(arguments);
+        }
+
+        throw new LoxError(line, "Can only call functions and classes.");
+    }
+
+    static Object get(Object object, String name, int line) {
+        if (object instanceof LoxInstance) {
+            return ((LoxInstance) object).get(name, line);
+        }
+
+        throw new LoxError(line, "Only instances have properties.");
+    }
+
+    // The instance a field is set on, checked before the value is evaluated.
+    static LoxInstance fieldTarget(Object object, int line) {
+        if (!(object instanceof LoxInstance)) {
+            throw new LoxError(line, "Only instances have fields.");
+        }
+        return (LoxInstance) object;
+    }
+
+    static Object set(LoxInstance instance, String name, Object value) {
+        instance.set(name, value);
+        return value;
+    }
+
+    static LoxClass superclass(Object value, int line) {
+        if (!(value instanceof LoxClass)) {
+            throw new LoxError(line, "Superclass must be a class.");
+        }
+        return (LoxClass) value;
+    }
+
+    static LoxClass klass(String name, LoxClass superclass, LoxFunction[] methods) {
+        return new LoxClass(name, superclass, methods);
+    }
+
+    static LoxFunction superMethod(LoxClass superclass, LoxInstance self, String name, int line) {
+        LoxFunction method = superclass.findMethod(name);
+        if (method == null) {
+            throw new LoxError(line, "Undefined property '" + name + "'.");
+        }
+        return method.bind(self);
+    }
+
+    private static void checkArity(int arity, Object[] arguments, int line) {
+        if (arguments.length != arity) {
+            throw new LoxError(line, "Expected " + arity + " arguemnts but got " + arguments.length + ".");
+        }
+    }
+
+    private static void checkNumberOperands(int line, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new LoxError(line, "Operands must be numbers.");
+    }
+}
@@ -14,16 +14,25 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
+
+        // Fields after a "|" are not passed to the constructor and stay mutable.
+        // The Resolver fills them in after parsing, e.g. where a variable lives.
+        // A local is in the given slot of the running function's frame on the ValueStack.
+        // One declared in an enclosing function is read through the upvalue instead, and
+        // a variable with neither a slot nor an upvalue is the global in the given slot
+        // of the globals table.
+        // inCell says that the variable is kept in a Cell because a closure assigns it.
         defineAst(outputDir, "Expr", Arrays.asList(
 
                 // An assignment expression looks like:
                 // IDENTIFIER "=" assignment
                 // eg. makeList().head.next = node;
-                "Assign     :   Token name, Expr value",
+                "Assign     :   Token name, Expr value | int slot = -1, int upvalue = -1, int global = -1, boolean inCell",
 
                 // A binary expression looks like:
                 // expression operator expression
-                "Binary     :   Expr left, Token operator, Expr right",
+                // isNumeric and isNumericComparison are set by Resolver.markNumeric().
+                "Binary     :   Expr left, Token operator, Expr right | BinaryOperation operation = BinaryOperation.UNINITIALIZED, boolean isNumeric, boolean isNumericComparison",
 
                 // A function call expression looks like:
                 // primary ( "(" arguments? ")" )*
@@ -31,56 +40,77 @@ public class GenerateAst {
 
                 // A "get expression" or "property access" looks like:
                 // primary ( "(" arguments? ")" | "." IDENTIFIER )*
-                "Get        :   Expr object, Token name",
+                "Get        :   Expr object, Token name | InlineCache cache = new InlineCache()",
 
                 // A grouping expression looks like:
                 // "(" expression ")"
                 "Grouping   :   Expr expression",
 
+                // An inlined call isn't parsed, the Optimizer makes it from a call to a
+                // small global function. While the global still holds that function, its
+                // body is evaluated in place of the call, otherwise the call is made.
+                "Inline     :   Expr.Call call, Stmt.Function function, Expr body",
+
+                // An invariant expression isn't parsed either. The Optimizer hoists an
+                // expression whose value can't change while a loop runs into the slot, which
+                // the loop marks as not evaluated yet each time it starts.
+                "Invariant  :   Expr expression | int slot",
+
                 // A literal expression looks like:
                 // NUMBER | STRING | "true" | "false" | "nil"
-                "Literal    :   Object value",
+                // The Parser sets line, as there is no token to take it from later.
+                "Literal    :   Object value | Object runtimeValue, int line",
 
                 // A logical expression looks like:
                 // expression ( "and" | "or" ) expression
-                "Logical    :   Expr left, Token operator, Expr right",
+                "Logical    :   Expr left, Token operator, Expr right | LogicalOperation operation = LogicalOperation.UNINITIALIZED",
 
                 // A "set expression" or "property assignment" looks like:
                 // ( call "." )? IDENTIFIER "=" assignment
-                "Set        :   Expr object, Token name, Expr value",
+                "Set        :   Expr object, Token name, Expr value | InlineCache cache = new InlineCache()",
 
                 // A super expression looks like:
                 // "super" "." IDENTIFIER
-                "Super      :   Token keyword, Token method",
+                // The superclass is always an upvalue. It also reads "this", which is in
+                // slot 0 unless super is used in a function nested in the method.
+                "Super      :   Token keyword, Token method | int upvalue = -1, int receiverUpvalue = -1",
 
-                "This       :   Token keyword",
+                "This       :   Token keyword | int slot = -1, int upvalue = -1",
 
                 // A unary expression looks like:
                 // ( "-" | "!" ) expression
-                "Unary      :   Token operator, Expr right",
+                "Unary      :   Token operator, Expr right | boolean isNumeric",
 
                 // A variable expression (for accessing a variable) looks like:
                 // IDENTIFIER
-                "Variable   :   Token name"
+                "Variable   :   Token name | int slot = -1, int upvalue = -1, int global = -1, boolean inCell"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
 
                 // A block statement looks like:
                 // "{" declaration* "}"
-                "Block      :   List<Stmt> statements",
+                // frameSize, and that of Class and For, is only set for a statement at the
+                // top level of the script that declares locals, which then get a frame of their own.
+                "Block      :   List<Stmt> statements | int frameSize",
 
                 // A class statement looks like:
                 // "class" IDENTIFIER ( "<" IDENTIFIER )? "{" function* "}"
-                "Class      :   Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+                "Class      :   Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1, boolean inCell, int superclassSlot, int frameSize",
 
                 // An expression statement looks like:
                 // expression ";"
                 "Expression :   Expr expression",
 
+                // A for statement looks like:
+                // "for" "(" ( varDecl | exprStmt | ";" ) expression? ";" expression? ")" statement
+                // invariants, and that of While, are the slots of the loop's Expr.Invariant nodes.
+                "For        :   Stmt initializer, Expr condition, Expr increment, Stmt body | int frameSize, int[] invariants = new int[0]",
+
                 // A function statement looks like:
                 // IDENTIFIER "(" parameters? ")" block
-                "Function   :   Token name, List<Token> params, List<Stmt> body",
+                // isOptimized is set once the Optimizer has optimized the body, which it does only once.
+                "Function   :   Token name, List<Token> params, List<Stmt> body | int slot = -1, boolean inCell, int frameSize, int[] cellParameters, Capture[] captures, int hotness, JitCode compiled, boolean isOptimized",
 
                 // An if statement looks like:
                 // "if" "(" expression ")" statement ( "else" statement )?
@@ -88,19 +118,19 @@ public class GenerateAst {
 
                 // A print statement looks like:
                 // "print" expression ";"
-                "Print      :   Expr expression",
+                "Print      :   Token keyword, Expr expression",
 
                 // A return statement looks like:
                 // "return" expression ";"
-                "Return     :   Token keyword, Expr value",
+                "Return     :   Token keyword, Expr value | boolean isTailCall",
 
                 // The rule for declaring a variable looks like:
                 // "var" IDENTIFIER ( "=" expression )? ";"
-                "Var        :   Token name, Expr initializer",
+                "Var        :   Token name, Expr initializer | int slot = -1, boolean inCell",
 
                 // A while statement looks like:
                 // "while" "(" expression ")" statement
-                "While      :   Expr condition, Stmt body"
+                "While      :   Expr condition, Stmt body | int[] invariants = new int[0]"
         ));
     }
 
@@ -123,7 +153,12 @@ public class GenerateAst {
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String mutableFields = null;
+            if (fields.contains("|")) {
+                mutableFields = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, mutableFields);
         }
 
         writer.println();
@@ -144,7 +179,8 @@ public class GenerateAst {
         writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String mutableFieldList) {
         writer.println("    static class " + className + " extends " + baseName + " {");
 
         String[] fields = fieldList.split(", ");
@@ -154,6 +190,12 @@ public class GenerateAst {
             writer.println("        final " + field + ";");
         }
 
+        if (mutableFieldList != null) {
+            for (String field : mutableFieldList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
+        }
+
         // Constructor.
         writer.println("        " + className + "(" + fieldList + ") {");
 